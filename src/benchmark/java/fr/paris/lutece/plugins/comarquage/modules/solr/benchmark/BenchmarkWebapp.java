@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Webapp used by the benchmarks : either an existing webapp holding a real comarquage corpus,
+ * given by the system property {@link #PROPERTY_WEBAPP}, or a temporary webapp holding a
+ * generated corpus
+ */
+public final class BenchmarkWebapp
+{
+    /**
+     * System property giving the path of an existing webapp
+     */
+    public static final String PROPERTY_WEBAPP = "comarquage.benchmark.webapp";
+
+    private static final String PATH_CONF = "/WEB-INF/conf/";
+    private static final String PATH_XML = "/WEB-INF/plugins/comarquage/xml";
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final long SEED = 20140101L;
+
+    /**
+     * Private constructor
+     */
+    private BenchmarkWebapp(  )
+    {
+    }
+
+    /**
+     * Initializes the Lutece path and properties services on the benchmark webapp
+     *
+     * @param nPublicCards the number of public cards of a generated corpus
+     * @param nLocalCards the number of local cards of a generated corpus
+     * @param strEngine the parsing engine of a generated corpus (sax or stax)
+     * @return the webapp directory
+     * @throws Exception if the webapp cannot be created or initialized
+     */
+    public static File init( int nPublicCards, int nLocalCards, String strEngine )
+        throws Exception
+    {
+        return init( new ComarquageCorpusGenerator( SEED ), nPublicCards, nLocalCards,
+            "comarquage-solr.parser.engine=" + strEngine );
+    }
+
+    /**
+     * Initializes the Lutece path and properties services on the benchmark webapp
+     *
+     * @param generator the generator of a generated corpus, with its shape
+     * @param nPublicCards the number of public cards of a generated corpus
+     * @param nLocalCards the number of local cards of a generated corpus
+     * @param solrProperties the comarquage-solr properties of a generated corpus, as key=value
+     * @return the webapp directory
+     * @throws Exception if the webapp cannot be created or initialized
+     */
+    public static File init( ComarquageCorpusGenerator generator, int nPublicCards, int nLocalCards,
+        String... solrProperties ) throws Exception
+    {
+        String strWebapp = System.getProperty( PROPERTY_WEBAPP );
+        File fileWebapp;
+
+        if ( strWebapp != null )
+        {
+            fileWebapp = new File( strWebapp );
+        }
+        else
+        {
+            fileWebapp = Files.createTempDirectory( "comarquage-benchmark" ).toFile(  );
+            create( fileWebapp, generator, nPublicCards, nLocalCards, solrProperties );
+        }
+
+        AppPathService.init( fileWebapp.getAbsolutePath(  ) );
+        AppPropertiesService.init( PATH_CONF );
+
+        return fileWebapp;
+    }
+
+    /**
+     * Creates a webapp with a generated corpus
+     *
+     * @param fileWebapp the webapp directory
+     * @param generator the corpus generator
+     * @param nPublicCards the number of public cards
+     * @param nLocalCards the number of local cards
+     * @param solrProperties the comarquage-solr properties
+     * @throws IOException if the webapp cannot be written
+     */
+    private static void create( File fileWebapp, ComarquageCorpusGenerator generator, int nPublicCards,
+        int nLocalCards, String[] solrProperties ) throws IOException
+    {
+        generator.generate( new File( fileWebapp, PATH_XML ), nPublicCards, nLocalCards );
+
+        File fileConf = new File( fileWebapp, PATH_CONF );
+        File filePluginsConf = new File( fileConf, "plugins" );
+        filePluginsConf.mkdirs(  );
+
+        write( new File( fileConf, "config.properties" ), "lutece.name=benchmark", "lutece.prod.url=http://localhost/" );
+
+        String[] indexFiles = generator.getPublicIndexFiles(  );
+        List<String> listComarquageProperties = new ArrayList<String>( Arrays.asList( 
+                    ComarquageCorpusGenerator.XPATH_PROPERTIES ) );
+        listComarquageProperties.add( "comarquage.path.xml=" + PATH_XML );
+        listComarquageProperties.add( "comarquage.indexing.localBasePath=" + ComarquageCorpusGenerator.LOCALS_DIRECTORY );
+
+        StringBuilder sbKeys = new StringBuilder(  );
+
+        for ( int i = 0; i < indexFiles.length; i++ )
+        {
+            sbKeys.append( ( i == 0 ) ? "" : "," ).append( "benchmark" ).append( i );
+            listComarquageProperties.add( "comarquage.indexing.benchmark" + i + "=" + indexFiles[i] );
+        }
+
+        listComarquageProperties.add( "comarquage.indexing.listCdcIndexKeys=" + sbKeys );
+        write( new File( filePluginsConf, "comarquage.properties" ),
+            listComarquageProperties.toArray( new String[listComarquageProperties.size(  )] ) );
+
+        List<String> listSolrProperties = new ArrayList<String>(  );
+        listSolrProperties.add( "comarquage-solr.indexing.publicType=comarquage:public" );
+        listSolrProperties.add( "comarquage-solr.indexing.localType=comarquage:local" );
+        listSolrProperties.addAll( Arrays.asList( solrProperties ) );
+        write( new File( filePluginsConf, "comarquage-solr.properties" ),
+            listSolrProperties.toArray( new String[listSolrProperties.size(  )] ) );
+    }
+
+    /**
+     * Writes a properties file
+     *
+     * @param file the file
+     * @param lines the properties
+     * @throws IOException if the file cannot be written
+     */
+    private static void write( File file, String... lines )
+        throws IOException
+    {
+        Writer writer = Files.newBufferedWriter( file.toPath(  ), CHARSET );
+
+        try
+        {
+            for ( String strLine : lines )
+            {
+                writer.write( strLine );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            writer.close(  );
+        }
+    }
+}
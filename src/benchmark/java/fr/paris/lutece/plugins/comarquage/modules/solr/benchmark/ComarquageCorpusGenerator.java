@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+
+/**
+ * Generates a synthetic comarquage corpus : public index files and a tree of local cards,
+ * matching the XPaths declared by {@link #XPATH_PROPERTIES}.
+ * The shape of the corpus (number of index files, depth and fan-out of the local tree,
+ * size of the texts) is set before calling {@link #generate(File, int, int)}
+ */
+public class ComarquageCorpusGenerator
+{
+    /**
+     * Configuration of the parsers matching the generated corpus
+     */
+    public static final String[] XPATH_PROPERTIES = 
+        {
+            "comarquage.parser.xpath.public.card=/Index/Card", "comarquage.parser.xpath.public.url=/Index/Card/Url",
+            "comarquage.parser.xpath.public.date=/Index/Card/Date",
+            "comarquage.parser.xpath.public.title=/Index/Card/Title",
+            "comarquage.parser.xpath.public.theme=/Index/Card/Themes/Theme",
+            "comarquage.parser.xpath.public.keywords=/Index/Card/Keywords", "comarquage.parser.url.public.delimiter=xml",
+            "comarquage.parser.xpath.local.card=/Local", "comarquage.parser.xpath.local.attribute.url=url",
+            "comarquage.parser.xpath.local.date=/Local/Date", "comarquage.parser.xpath.local.title=/Local/Title",
+            "comarquage.parser.url.local.delimiter=xml", "comarquage.parser.path.first.node=locals",
+            "comarquage.parser.path.id=xmlFile", "comarquage.plugin.name=comarquage"
+        };
+
+    /**
+     * Name of the generated public index file, when the public cards are written to a single file
+     */
+    public static final String PUBLIC_INDEX_FILE = "index.xml";
+
+    /**
+     * Name of the generated local cards directory
+     */
+    public static final String LOCALS_DIRECTORY = "locals";
+
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final String[] MONTHS = 
+        {
+            "janvier", "février", "mars", "avril", "mai", "juin", "juillet", "août", "septembre", "octobre",
+            "novembre", "décembre"
+        };
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private final Random _random;
+    private int _nPublicIndexFiles = 1;
+    private int _nLocalDepth = 2;
+    private int _nLocalFanout = 10;
+    private int _nMaxParagraphs = 10;
+    private int _nMaxParagraphWords = 40;
+    private int _nMaxDescriptionWords = 60;
+
+    /**
+     * Creates a generator
+     *
+     * @param lSeed the seed of the random contents, so that a corpus can be generated again
+     */
+    public ComarquageCorpusGenerator( long lSeed )
+    {
+        _random = new Random( lSeed );
+    }
+
+    /**
+     * Sets the number of public index files the public cards are spread over
+     *
+     * @param nPublicIndexFiles the number of files (1 by default)
+     */
+    public void setPublicIndexFiles( int nPublicIndexFiles )
+    {
+        _nPublicIndexFiles = Math.max( 1, nPublicIndexFiles );
+    }
+
+    /**
+     * Sets the number of directory levels above the local cards
+     *
+     * @param nLocalDepth the depth (2 by default)
+     */
+    public void setLocalDepth( int nLocalDepth )
+    {
+        _nLocalDepth = Math.max( 0, nLocalDepth );
+    }
+
+    /**
+     * Sets the number of sub-directories of each directory of the local tree
+     *
+     * @param nLocalFanout the fan-out (10 by default)
+     */
+    public void setLocalFanout( int nLocalFanout )
+    {
+        _nLocalFanout = Math.max( 1, nLocalFanout );
+    }
+
+    /**
+     * Sets the size of the local cards
+     *
+     * @param nMaxParagraphs the maximum number of paragraphs of a local card (10 by default)
+     * @param nMaxParagraphWords the maximum number of words of a paragraph (40 by default)
+     */
+    public void setLocalCardSize( int nMaxParagraphs, int nMaxParagraphWords )
+    {
+        _nMaxParagraphs = Math.max( 1, nMaxParagraphs );
+        _nMaxParagraphWords = Math.max( 1, nMaxParagraphWords );
+    }
+
+    /**
+     * Sets the size of the public cards
+     *
+     * @param nMaxDescriptionWords the maximum number of words of a description (60 by default)
+     */
+    public void setPublicCardSize( int nMaxDescriptionWords )
+    {
+        _nMaxDescriptionWords = Math.max( 1, nMaxDescriptionWords );
+    }
+
+    /**
+     * Gets the names of the public index files, relative to the XML directory
+     *
+     * @return the names of the files
+     */
+    public String[] getPublicIndexFiles(  )
+    {
+        String[] files = new String[_nPublicIndexFiles];
+
+        if ( _nPublicIndexFiles == 1 )
+        {
+            files[0] = PUBLIC_INDEX_FILE;
+        }
+        else
+        {
+            for ( int i = 0; i < _nPublicIndexFiles; i++ )
+            {
+                files[i] = "index" + i + ".xml";
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Generates the corpus
+     *
+     * @param fileXmlDirectory the comarquage XML directory
+     * @param nPublicCards the number of public cards
+     * @param nLocalCards the number of local cards
+     * @throws IOException if the corpus cannot be written
+     */
+    public void generate( File fileXmlDirectory, int nPublicCards, int nLocalCards )
+        throws IOException
+    {
+        String[] indexFiles = getPublicIndexFiles(  );
+        int nFirstCard = 0;
+
+        for ( int i = 0; i < indexFiles.length; i++ )
+        {
+            int nLastCard = (int) ( ( (long) nPublicCards * ( i + 1 ) ) / indexFiles.length );
+            writePublicIndex( new File( fileXmlDirectory, indexFiles[i] ), nFirstCard, nLastCard );
+            nFirstCard = nLastCard;
+        }
+
+        File fileLocals = new File( fileXmlDirectory, LOCALS_DIRECTORY );
+
+        for ( int i = 0; i < nLocalCards; i++ )
+        {
+            String strPath = getLocalPath( i );
+            File fileCard = new File( fileLocals, strPath + ".xml" );
+            fileCard.getParentFile(  ).mkdirs(  );
+            writeLocalCard( fileCard, strPath, i );
+        }
+    }
+
+    /**
+     * Gets the path of a local card : each level of the tree holds a digit of the card number in base fan-out
+     *
+     * @param nCard the card number
+     * @return the path, relative to the locals directory and without extension
+     */
+    private String getLocalPath( int nCard )
+    {
+        StringBuilder sbPath = new StringBuilder(  );
+        int nRemaining = nCard;
+
+        for ( int i = 0; i < _nLocalDepth; i++ )
+        {
+            sbPath.append( 'd' ).append( i ).append( '_' ).append( nRemaining % _nLocalFanout ).append( '/' );
+            nRemaining /= _nLocalFanout;
+        }
+
+        return sbPath.append( 'L' ).append( nCard ).toString(  );
+    }
+
+    /**
+     * Writes a public index file
+     *
+     * @param file the file
+     * @param nFirstCard the number of the first card of the file
+     * @param nEndCard the number following the last card of the file
+     * @throws IOException if the file cannot be written
+     */
+    private void writePublicIndex( File file, int nFirstCard, int nEndCard )
+        throws IOException
+    {
+        file.getParentFile(  ).mkdirs(  );
+
+        Writer writer = Files.newBufferedWriter( file.toPath(  ), CHARSET );
+
+        try
+        {
+            writer.write( XML_HEADER );
+            writer.write( "<Index>\n" );
+
+            for ( int i = nFirstCard; i < nEndCard; i++ )
+            {
+                writer.write( "<Card><Url>http://www.service-public.fr/?xml=F" + i + ".xml</Url>" );
+                writer.write( "<Date>" + randomDate(  ) + "</Date>" );
+                writer.write( "<Title>Fiche " + i + " : " + words( 8 ) + "</Title>" );
+                writer.write( "<Themes><Theme>" + words( 2 ) + "</Theme><Theme>" + words( 2 ) + "</Theme></Themes>" );
+                writer.write( "<Keywords>" + words( 6 ) + "</Keywords>" );
+                writer.write( "<Description>" + words( _nMaxDescriptionWords ) + "</Description></Card>\n" );
+            }
+
+            writer.write( "</Index>\n" );
+        }
+        finally
+        {
+            writer.close(  );
+        }
+    }
+
+    /**
+     * Writes a local card
+     *
+     * @param file the file
+     * @param strPath the path of the card, relative to the locals directory and without extension
+     * @param nCard the card number
+     * @throws IOException if the file cannot be written
+     */
+    private void writeLocalCard( File file, String strPath, int nCard )
+        throws IOException
+    {
+        Writer writer = Files.newBufferedWriter( file.toPath(  ), CHARSET );
+
+        try
+        {
+            writer.write( XML_HEADER );
+            writer.write( "<Local url=\"" + strPath + ".xml\">\n" );
+            writer.write( "  <Title>Fiche locale " + nCard + "</Title>\n" );
+            writer.write( "  <Date>" + randomDate(  ) + "</Date>\n" );
+            writer.write( "  <Body>\n" );
+
+            for ( int i = _random.nextInt( _nMaxParagraphs ); i >= 0; i-- )
+            {
+                writer.write( "    <Paragraph>" + words( _nMaxParagraphWords ) + "</Paragraph>\n" );
+            }
+
+            writer.write( "  </Body>\n</Local>\n" );
+        }
+        finally
+        {
+            writer.close(  );
+        }
+    }
+
+    /**
+     * Gets a random date, as written in the cards
+     *
+     * @return the date
+     */
+    private String randomDate(  )
+    {
+        return String.format( "%02d %s %d", 1 + _random.nextInt( 28 ), MONTHS[_random.nextInt( MONTHS.length )],
+            2005 + _random.nextInt( 10 ) );
+    }
+
+    /**
+     * Gets random words
+     *
+     * @param nMaxWords the maximum number of words
+     * @return the words
+     */
+    private String words( int nMaxWords )
+    {
+        StringBuilder sbWords = new StringBuilder(  );
+
+        for ( int i = 1 + _random.nextInt( nMaxWords ); i > 0; i-- )
+        {
+            if ( sbWords.length(  ) > 0 )
+            {
+                sbWords.append( ' ' );
+            }
+
+            sbWords.append( "mot" ).append( _random.nextInt( 5000 ) );
+        }
+
+        return sbWords.toString(  );
+    }
+}
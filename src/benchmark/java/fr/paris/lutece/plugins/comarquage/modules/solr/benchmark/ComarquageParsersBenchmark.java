@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrLocalParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrPublicParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Benchmarks of the comarquage parsers.
+ * Each operation parses the whole corpus : the public index files for the public parser, the
+ * local cards tree for the local parser. The <code>cards</code> secondary metric gives the
+ * number of cards parsed per second, and the allocation per card is the
+ * <code>gc.alloc.rate.norm</code> metric of the GC profiler divided by the number of cards of
+ * the corpus.
+ * A real corpus can be used instead of the generated one with
+ * <code>-jvmArgsAppend -Dcomarquage.benchmark.webapp=/path/to/webapp</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class ComarquageParsersBenchmark
+{
+    /**
+     * The parsing engine
+     */
+    @Param( { "sax", "stax" } )
+    public String engine;
+
+    /**
+     * The number of public cards of the generated corpus
+     */
+    @Param( "5000" )
+    public int publicCards;
+
+    /**
+     * The number of local cards of the generated corpus
+     */
+    @Param( "2000" )
+    public int localCards;
+
+    /**
+     * Initializes the benchmark webapp
+     *
+     * @throws Exception if the webapp cannot be initialized
+     */
+    @Setup( Level.Trial )
+    public void setUp(  ) throws Exception
+    {
+        BenchmarkWebapp.init( publicCards, localCards, engine );
+    }
+
+    /**
+     * Parses the public cards
+     *
+     * @param counters the cards counter
+     * @param blackhole the JMH blackhole
+     */
+    @Benchmark
+    public void parsePublicCards( CardCounters counters, Blackhole blackhole )
+    {
+        new CoMarquageSolrPublicParser( counters.sink( blackhole ) ).parse(  );
+    }
+
+    /**
+     * Parses the local cards
+     *
+     * @param counters the cards counter
+     * @param blackhole the JMH blackhole
+     */
+    @Benchmark
+    public void parseLocalCards( CardCounters counters, Blackhole blackhole )
+    {
+        new CoMarquageSolrLocalParser( counters.sink( blackhole ) ).parse(  );
+    }
+
+    /**
+     * Number of cards parsed, reported as a throughput
+     */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class CardCounters
+    {
+        /**
+         * The number of parsed cards
+         */
+        public long cards;
+
+        /**
+         * Resets the counter
+         */
+        @Setup( Level.Iteration )
+        public void reset(  )
+        {
+            cards = 0;
+        }
+
+        /**
+         * Gets a sink counting the cards
+         *
+         * @param blackhole the JMH blackhole consuming the items
+         * @return the sink
+         */
+        SolrItemSink sink( final Blackhole blackhole )
+        {
+            return new SolrItemSink(  )
+                {
+                    public void accept( SolrItem item )
+                    {
+                        cards++;
+                        blackhole.consume( item );
+                    }
+                };
+        }
+    }
+}
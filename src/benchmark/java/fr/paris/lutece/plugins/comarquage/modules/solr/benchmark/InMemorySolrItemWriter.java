@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.benchmark;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.search.SolrItemWriter;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Stand-in for the Solr index : counts the written items and measures the duration of each batch.
+ * A latency can be simulated for each batch, to approach the cost of a remote Solr server
+ */
+public class InMemorySolrItemWriter implements SolrItemWriter
+{
+    private final long _lLatencyMillis;
+    private long[] _batchNanos = new long[1024];
+    private int _nBatches;
+    private long _lItems;
+    private long _lDeletedItems;
+    private long _lContentLength;
+    private long _lWriteNanos;
+
+    /**
+     * Creates a writer
+     *
+     * @param lLatencyMillis the simulated latency of each batch, in milliseconds
+     */
+    public InMemorySolrItemWriter( long lLatencyMillis )
+    {
+        _lLatencyMillis = lLatencyMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void write( Collection<SolrItem> listItems )
+        throws Exception
+    {
+        long lStart = System.nanoTime(  );
+
+        for ( SolrItem item : listItems )
+        {
+            // Reads the content so that the work of the parsers cannot be optimized away
+            String strContent = item.getContent(  );
+            _lContentLength += ( ( strContent == null ) ? 0 : strContent.length(  ) );
+        }
+
+        if ( _lLatencyMillis > 0 )
+        {
+            Thread.sleep( _lLatencyMillis );
+        }
+
+        long lDuration = System.nanoTime(  ) - lStart;
+
+        if ( _nBatches == _batchNanos.length )
+        {
+            _batchNanos = Arrays.copyOf( _batchNanos, _nBatches * 2 );
+        }
+
+        _batchNanos[_nBatches++] = lDuration;
+        _lWriteNanos += lDuration;
+        _lItems += listItems.size(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void delete( List<String> listUids )
+        throws Exception
+    {
+        _lDeletedItems += listUids.size(  );
+    }
+
+    /**
+     * {@inheritDoc} The written items are counted at once : there is nothing to commit
+     */
+    public void commit(  ) throws Exception
+    {
+    }
+
+    /**
+     * {@inheritDoc} The written items are not kept : there is no UID to list
+     */
+    public long getUids( String strType, String strAfterUid, int nRows, List<String> listUids )
+        throws Exception
+    {
+        return 0L;
+    }
+
+    /**
+     * Forgets the measures of the previous run
+     */
+    public synchronized void reset(  )
+    {
+        _nBatches = 0;
+        _lItems = 0;
+        _lDeletedItems = 0;
+        _lContentLength = 0;
+        _lWriteNanos = 0;
+    }
+
+    /**
+     * Gets the number of written items
+     *
+     * @return the number of items
+     */
+    public synchronized long getItems(  )
+    {
+        return _lItems;
+    }
+
+    /**
+     * Gets the number of deleted items
+     *
+     * @return the number of items
+     */
+    public synchronized long getDeletedItems(  )
+    {
+        return _lDeletedItems;
+    }
+
+    /**
+     * Gets the total length of the contents of the written items
+     *
+     * @return the length, in characters
+     */
+    public synchronized long getContentLength(  )
+    {
+        return _lContentLength;
+    }
+
+    /**
+     * Gets the number of written batches
+     *
+     * @return the number of batches
+     */
+    public synchronized int getBatches(  )
+    {
+        return _nBatches;
+    }
+
+    /**
+     * Gets the time spent writing the batches
+     *
+     * @return the time, in nanoseconds
+     */
+    public synchronized long getWriteNanos(  )
+    {
+        return _lWriteNanos;
+    }
+
+    /**
+     * Gets a percentile of the batch durations
+     *
+     * @param dPercentile the percentile, between 0 and 100
+     * @return the duration, in nanoseconds, or 0 if no batch was written
+     */
+    public synchronized long getBatchPercentile( double dPercentile )
+    {
+        if ( _nBatches == 0 )
+        {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf( _batchNanos, _nBatches );
+        Arrays.sort( sorted );
+
+        int nIndex = (int) Math.ceil( ( dPercentile / 100 ) * _nBatches ) - 1;
+
+        return sorted[Math.max( 0, Math.min( _nBatches - 1, nIndex ) )];
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.search.SolrComarquageIndexer;
+import fr.paris.lutece.plugins.comarquage.modules.solr.search.SolrComarquageLocalIndexer;
+import fr.paris.lutece.plugins.comarquage.modules.solr.search.SolrComarquagePublicIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
+
+
+/**
+ * End-to-end indexing throughput on a generated corpus : runs the public and local indexers
+ * against an in-memory stand-in for the Solr index, and reports for each run the throughput,
+ * the time spent parsing and writing, the batch latencies and the peak heap.
+ * <p>
+ * The corpus is configured with the system properties :
+ * <ul>
+ * <li>comarquage.benchmark.publicCards, comarquage.benchmark.localCards : the number of cards</li>
+ * <li>comarquage.benchmark.publicFiles : the number of public index files</li>
+ * <li>comarquage.benchmark.localDepth, comarquage.benchmark.localFanout : the shape of the local tree</li>
+ * <li>comarquage.benchmark.maxParagraphs, comarquage.benchmark.maxParagraphWords,
+ * comarquage.benchmark.maxDescriptionWords : the size of the cards</li>
+ * <li>comarquage.benchmark.seed : the seed of the random contents</li>
+ * </ul>
+ * Each run indexes the public cards, the local cards, then both corpora in a single run.
+ * The runs are configured with comarquage.benchmark.runs, the number of runs (the first ones warm up the JVM),
+ * and comarquage.benchmark.writeLatency, the simulated latency of each batch in milliseconds.
+ * The system properties starting with comarquage-solr. are copied to the configuration of the plugin.
+ * An existing webapp can be used instead of a generated corpus, see {@link BenchmarkWebapp}
+ */
+public final class IndexingThroughputHarness
+{
+    private static final String PROPERTY_PREFIX = "comarquage.benchmark.";
+    private static final String PREFIX_SOLR_PROPERTIES = "comarquage-solr.";
+    private static final double NANOS_PER_MILLI = 1000000d;
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /**
+     * Private constructor
+     */
+    private IndexingThroughputHarness(  )
+    {
+    }
+
+    /**
+     * Generates the corpus and runs the indexers
+     *
+     * @param args not used
+     * @throws Exception if the corpus cannot be generated
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        ComarquageCorpusGenerator generator = new ComarquageCorpusGenerator( Long.getLong( PROPERTY_PREFIX + "seed",
+                    20140101L ) );
+        generator.setPublicIndexFiles( getInt( "publicFiles", 1 ) );
+        generator.setLocalDepth( getInt( "localDepth", 2 ) );
+        generator.setLocalFanout( getInt( "localFanout", 10 ) );
+        generator.setLocalCardSize( getInt( "maxParagraphs", 10 ), getInt( "maxParagraphWords", 40 ) );
+        generator.setPublicCardSize( getInt( "maxDescriptionWords", 60 ) );
+
+        List<String> listSolrProperties = new ArrayList<String>(  );
+
+        for ( Map.Entry<Object, Object> property : System.getProperties(  ).entrySet(  ) )
+        {
+            if ( property.getKey(  ).toString(  ).startsWith( PREFIX_SOLR_PROPERTIES ) )
+            {
+                listSolrProperties.add( property.getKey(  ) + "=" + property.getValue(  ) );
+            }
+        }
+
+        long lStart = System.nanoTime(  );
+        BenchmarkWebapp.init( generator, getInt( "publicCards", 20000 ), getInt( "localCards", 5000 ),
+            listSolrProperties.toArray( new String[listSolrProperties.size(  )] ) );
+        System.out.println( String.format( "Corpus ready in %.0f ms", ( System.nanoTime(  ) - lStart ) / NANOS_PER_MILLI ) );
+
+        InMemorySolrItemWriter writer = new InMemorySolrItemWriter( getInt( "writeLatency", 0 ) );
+        SolrComarquagePublicIndexer publicIndexer = new SolrComarquagePublicIndexer(  );
+        publicIndexer.setItemWriter( writer );
+
+        SolrComarquageLocalIndexer localIndexer = new SolrComarquageLocalIndexer(  );
+        localIndexer.setItemWriter( writer );
+
+        SolrComarquageIndexer indexer = new SolrComarquageIndexer(  );
+        indexer.setItemWriter( writer );
+
+        int nRuns = getInt( "runs", 3 );
+
+        for ( int i = 1; i <= nRuns; i++ )
+        {
+            run( "run " + i + " public", publicIndexer, writer );
+            run( "run " + i + " local ", localIndexer, writer );
+            run( "run " + i + " both  ", indexer, writer );
+        }
+    }
+
+    /**
+     * Runs an indexer and reports its measures
+     *
+     * @param strName the name of the run
+     * @param indexer the indexer, either public or local
+     * @param writer the writer of the indexer
+     */
+    private static void run( String strName, SolrIndexer indexer, InMemorySolrItemWriter writer )
+    {
+        writer.reset(  );
+        System.gc(  );
+
+        List<MemoryPoolMXBean> listHeapPools = new ArrayList<MemoryPoolMXBean>(  );
+
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans(  ) )
+        {
+            if ( pool.getType(  ) == MemoryType.HEAP )
+            {
+                pool.resetPeakUsage(  );
+                listHeapPools.add( pool );
+            }
+        }
+
+        long lStart = System.nanoTime(  );
+        List<String> listErrors = indexer.indexDocuments(  );
+        long lElapsed = System.nanoTime(  ) - lStart;
+
+        long lPeakHeap = 0;
+
+        for ( MemoryPoolMXBean pool : listHeapPools )
+        {
+            lPeakHeap += pool.getPeakUsage(  ).getUsed(  );
+        }
+
+        long lItems = writer.getItems(  );
+        long lWrite = writer.getWriteNanos(  );
+
+        System.out.println( String.format( 
+                "%s : %d items in %.0f ms (%.0f items/s, %d content chars), parse %.0f ms, write %.0f ms " +
+                "over %d batches (p50 %.2f ms, p99 %.2f ms, max %.2f ms), peak heap %d MB, %d errors", strName, lItems,
+                lElapsed / NANOS_PER_MILLI, ( lItems * 1000d * NANOS_PER_MILLI ) / Math.max( 1, lElapsed ),
+                writer.getContentLength(  ), ( lElapsed - lWrite ) / NANOS_PER_MILLI, lWrite / NANOS_PER_MILLI,
+                writer.getBatches(  ), writer.getBatchPercentile( 50 ) / NANOS_PER_MILLI,
+                writer.getBatchPercentile( 99 ) / NANOS_PER_MILLI, writer.getBatchPercentile( 100 ) / NANOS_PER_MILLI,
+                lPeakHeap / BYTES_PER_MEGABYTE, listErrors.size(  ) ) );
+    }
+
+    /**
+     * Gets an integer system property of the harness
+     *
+     * @param strName the name of the property, without prefix
+     * @param nDefault the default value
+     * @return the value
+     */
+    private static int getInt( String strName, int nDefault )
+    {
+        return Integer.getInteger( PROPERTY_PREFIX + strName, nDefault );
+    }
+}
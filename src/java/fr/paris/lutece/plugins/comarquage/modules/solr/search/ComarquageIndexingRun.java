@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.util.List;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingCheckpoint;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.LocalCardsManifest;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.ParsedCardsCache;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrLocalParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrPublicParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.ComarquageIndexingEngine;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.DeduplicatingSolrItemSink;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Indexing run of the comarquage indexers : the public and/or local cards are parsed by the indexing
+ * engine and sent to the index by batches, with the metrics, the orphan purge, the local cards manifest,
+ * the parsed cards cache and the checkpoint of the run
+ */
+final class ComarquageIndexingRun
+{
+    private static final String COM_MANIFEST_SKIPPED = "Unchanged local cards skipped : ";
+    private static final String COM_CHECKPOINT_DISABLED = "Checkpoint disabled by the deduplication of the public cards";
+
+    // Variables
+    private final String _strName;
+    private final String _strLogPrefix;
+    private final String _strErrorMessage;
+    private boolean _bPublicCards;
+    private boolean _bLocalCards;
+    private int _nThreads = 1;
+
+    /**
+     * Creates a run
+     *
+     * @param strName the name of the run, naming its metrics and its checkpoint
+     * @param strLogPrefix the prefix of the messages logged by the run
+     * @param strErrorMessage the message logged when an item cannot be indexed
+     */
+    ComarquageIndexingRun( String strName, String strLogPrefix, String strErrorMessage )
+    {
+        _strName = strName;
+        _strLogPrefix = strLogPrefix;
+        _strErrorMessage = strErrorMessage;
+    }
+
+    /**
+     * Sets whether the public cards are indexed. The public cards listed by several index files are only sent once
+     *
+     * @param bPublicCards true to index the public cards
+     */
+    void setPublicCards( boolean bPublicCards )
+    {
+        _bPublicCards = bPublicCards;
+    }
+
+    /**
+     * Sets whether the local cards are indexed. The unchanged local cards are skipped when the manifest is enabled
+     *
+     * @param bLocalCards true to index the local cards
+     */
+    void setLocalCards( boolean bLocalCards )
+    {
+        _bLocalCards = bLocalCards;
+    }
+
+    /**
+     * Sets the number of parser threads
+     *
+     * @param nThreads the number of threads, or 0 for the number of processors
+     */
+    void setThreads( int nThreads )
+    {
+        _nThreads = nThreads;
+    }
+
+    /**
+     * Runs the indexing
+     *
+     * @param itemWriter the writer sending the items to the index
+     * @return the list of errors, one per card that could not be indexed
+     */
+    List<String> run( SolrItemWriter itemWriter )
+    {
+        // Metrics of the run, exported over JMX
+        IndexingMetrics metrics = IndexingMetrics.getInstance( _strName );
+        metrics.startRun(  );
+
+        // Sends the Solr documents to the index by batches
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( itemWriter, _strErrorMessage, metrics );
+
+        // Records the UIDs of the items, to delete the orphan items once the run is complete
+        SolrOrphanPurge purge = SolrOrphanPurge.create(  );
+        writer.setOrphanPurge( purge );
+
+        LocalCardsManifest manifest = null;
+        ParsedCardsCache cache = null;
+        IndexingCheckpoint checkpoint = null;
+        List<String> lstErrors;
+
+        try
+        {
+            // Manifest of the previous run, to skip the unchanged local cards
+            manifest = _bLocalCards ? LocalCardsManifest.load(  ) : null;
+
+            // Parses the cards, each Solr document is handed to the writer as soon as its card is parsed
+            SolrItemSink sink = _bPublicCards ? DeduplicatingSolrItemSink.wrap( writer, metrics ) : writer;
+            ComarquageIndexingEngine engine = new ComarquageIndexingEngine( sink, metrics, _nThreads );
+
+            if ( _bPublicCards )
+            {
+                engine.addCorpus( CoMarquageSolrPublicParser.getCorpusDescriptor(  ) );
+            }
+
+            if ( _bLocalCards )
+            {
+                engine.addCorpus( CoMarquageSolrLocalParser.getCorpusDescriptor( manifest ) );
+            }
+
+            // Cache of the parsed cards, replaying the items of the unchanged files when the index is rebuilt.
+            // The cards skipped by the manifest have no items, the cache is only used without manifest
+            cache = ( manifest == null ) ? ParsedCardsCache.load(  ) : null;
+            engine.setCache( cache );
+
+            // Checkpoint of an interrupted run, skipping the files it has completed. The deduplication
+            // needs the items of all the cards of the run : the duplicates of the skipped cards would be sent
+            if ( sink == writer )
+            {
+                checkpoint = IndexingCheckpoint.load( _strName );
+            }
+            else if ( IndexingCheckpoint.isEnabled(  ) )
+            {
+                AppLogService.info( _strLogPrefix + COM_CHECKPOINT_DISABLED );
+            }
+
+            engine.setCheckpoint( checkpoint, writer );
+            engine.run(  );
+        }
+        finally
+        {
+            // The threads of the writer are stopped even when the parse fails
+            lstErrors = writer.close(  );
+        }
+
+        if ( checkpoint != null )
+        {
+            checkpoint.endRun( metrics );
+        }
+
+        if ( purge != null )
+        {
+            // The items of the skipped, resumed or failed files are missing from the run
+            boolean bComplete = ( metrics.getErrors(  ) == 0 ) && ( ( manifest == null ) || ( manifest.getSkippedCount(  ) == 0 ) ) &&
+                ( ( checkpoint == null ) || !checkpoint.isResumed(  ) ) && !Thread.currentThread(  ).isInterrupted(  );
+            purge.purge( writer, metrics, bComplete );
+        }
+
+        if ( cache != null )
+        {
+            cache.evict(  );
+        }
+
+        metrics.endRun(  );
+        AppLogService.info( _strLogPrefix + metrics.getSummary(  ) );
+
+        if ( manifest != null )
+        {
+            AppLogService.info( _strLogPrefix + COM_MANIFEST_SKIPPED + manifest.getSkippedCount(  ) );
+
+            // The cards of a failed run are parsed again by the next run
+            if ( lstErrors.isEmpty(  ) )
+            {
+                manifest.save(  );
+            }
+        }
+
+        return lstErrors;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
+
+
+/**
+ * Writer sending the items to the index through the Solr plugin. The Solr plugin prefixes the UID
+ * of the items it writes with the name of the webapp, so the deletions and the listings use the
+ * same prefix and only see the items of this webapp.
+ */
+public class DefaultSolrItemWriter implements SolrItemWriter
+{
+    // Solr query
+    private static final String QUERY_ALL = "*:*";
+    private static final String FIELD_UID = "uid";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_SITE = "site";
+    private static final String WILDCARD = "*";
+    private static final String PARAMETER_SORT = "sort";
+    private static final String SORT_ASCENDING = " asc";
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( Collection<SolrItem> listItems ) throws Exception
+    {
+        SolrIndexerService.write( listItems );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete( List<String> listUids ) throws Exception
+    {
+        String strPrefix = getUidPrefix(  );
+        List<String> listIndexUids = new ArrayList<String>( listUids.size(  ) );
+
+        for ( String strUid : listUids )
+        {
+            listIndexUids.add( strPrefix + strUid );
+        }
+
+        SolrServerService.getInstance(  ).getSolrServer(  ).deleteById( listIndexUids );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void commit(  ) throws Exception
+    {
+        SolrServerService.getInstance(  ).getSolrServer(  ).commit(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUids( String strType, String strAfterUid, int nRows, List<String> listUids )
+        throws Exception
+    {
+        String strPrefix = getUidPrefix(  );
+
+        // The pages follow each other by UID range, which stays efficient at any depth
+        SolrQuery query = new SolrQuery( QUERY_ALL );
+        query.addFilterQuery( FIELD_SITE + ":" +
+            ClientUtils.escapeQueryChars( SolrIndexerService.getWebAppName(  ) ) );
+        query.addFilterQuery( FIELD_TYPE + ":" + ClientUtils.escapeQueryChars( strType ) );
+        query.addFilterQuery( FIELD_UID + ":" + ClientUtils.escapeQueryChars( strPrefix ) + WILDCARD );
+
+        if ( strAfterUid != null )
+        {
+            query.addFilterQuery( FIELD_UID + ":{" + ClientUtils.escapeQueryChars( strPrefix + strAfterUid ) +
+                " TO *]" );
+        }
+
+        query.setFields( FIELD_UID );
+        query.set( PARAMETER_SORT, FIELD_UID + SORT_ASCENDING );
+        query.setRows( nRows );
+
+        QueryResponse response = SolrServerService.getInstance(  ).getSolrServer(  ).query( query );
+        SolrDocumentList listDocuments = response.getResults(  );
+
+        for ( SolrDocument document : listDocuments )
+        {
+            String strIndexUid = (String) document.getFieldValue( FIELD_UID );
+
+            if ( ( strIndexUid != null ) && strIndexUid.startsWith( strPrefix ) )
+            {
+                listUids.add( strIndexUid.substring( strPrefix.length(  ) ) );
+            }
+        }
+
+        return listDocuments.getNumFound(  );
+    }
+
+    /**
+     * Returns the prefix added by the Solr plugin to the UID of the items of this webapp
+     *
+     * @return the prefix
+     */
+    private static String getUidPrefix(  )
+    {
+        return SolrIndexerService.getWebAppName(  ) + SolrConstants.CONSTANT_UNDERSCORE;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.io.File;
+import java.io.IOException;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.SolrItemExporter;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrLocalParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrPublicParser;
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+
+
+/**
+ * Daemon parsing the public and local cards of the enabled indexers to an export file,
+ * which can be loaded into another Solr index by {@link SolrComarquageImportIndexer}
+ */
+public class SolrComarquageExportDaemon extends Daemon
+{
+    /**
+     * The export file, relative to the webapp
+     */
+    static final String PROPERTY_EXPORT_FILE = "comarquage-solr.export.file";
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run(  )
+    {
+        File file = new File( AppPathService.getPath( PROPERTY_EXPORT_FILE ) );
+        long lStart = System.currentTimeMillis(  );
+
+        try
+        {
+            SolrItemExporter exporter = new SolrItemExporter( file );
+
+            // Counts the files that could not be parsed, their items are missing from the export
+            IndexingMetrics metrics = new IndexingMetrics(  );
+            boolean bComplete = false;
+
+            try
+            {
+                if ( new SolrComarquagePublicIndexer(  ).isEnable(  ) )
+                {
+                    CoMarquageSolrPublicParser parser = new CoMarquageSolrPublicParser( exporter );
+                    parser.setMetrics( metrics );
+                    parser.parse(  );
+                }
+
+                if ( new SolrComarquageLocalIndexer(  ).isEnable(  ) )
+                {
+                    CoMarquageSolrLocalParser parser = new CoMarquageSolrLocalParser( exporter );
+                    parser.setMetrics( metrics );
+                    parser.parse(  );
+                }
+
+                bComplete = metrics.getErrors(  ) == 0;
+            }
+            finally
+            {
+                // An incomplete export never replaces the previous one
+                if ( !bComplete )
+                {
+                    exporter.abort(  );
+                }
+            }
+
+            if ( bComplete )
+            {
+                exporter.close(  );
+                setLastRunLogs( exporter.getItemCount(  ) + " items exported to " + file + " in " +
+                    ( System.currentTimeMillis(  ) - lStart ) + " ms" );
+            }
+            else
+            {
+                AppLogService.error( "Incomplete export of the comarquage items to " + file + " : " +
+                    metrics.getErrors(  ) + " errors, the previous export is kept" );
+                setLastRunLogs( "Export failed : " + metrics.getErrors(  ) +
+                    " files could not be parsed, the previous export is kept" );
+            }
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to export the comarquage items to " + file, e );
+            setLastRunLogs( "Export failed : " + e.getMessage(  ) );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( "Unable to export the comarquage items to " + file, e );
+            setLastRunLogs( "Export failed : " + e );
+        }
+    }
+}
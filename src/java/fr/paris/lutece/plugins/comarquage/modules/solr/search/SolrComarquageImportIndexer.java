@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.SolrItemLoader;
+import fr.paris.lutece.plugins.search.solr.business.field.Field;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Indexer loading the comarquage items of an export file written by {@link SolrComarquageExportDaemon},
+ * instead of parsing the XML files. It is meant to bootstrap a new Solr index : enable it and
+ * disable the public and local indexers
+ */
+public class SolrComarquageImportIndexer implements SolrIndexer
+{
+    private static final String PROPERTY_DESCRIPTION = "comarquage-solr.indexing.importIndexer.description";
+    private static final String PROPERTY_NAME = "comarquage-solr.indexing.importIndexer.name";
+    private static final String PROPERTY_VERSION = "comarquage-solr.indexing.importIndexer.version";
+    private static final String PROPERTY_INDEXER_ENABLE = "comarquage-solr.indexing.importIndexer.enable";
+    private static final String COM_INDEXATION_ERROR = "[SolrComarquageImportIndexer] An error occured during the indexation of an exported element ";
+    private static final String COM_IMPORT_ERROR = "[SolrComarquageImportIndexer] Unable to read the export file ";
+    private static final String COM_IMPORTED = "[SolrComarquageImportIndexer] Items loaded from the export file : ";
+    private static final String COM_METRICS = "[SolrComarquageImportIndexer] ";
+    private static final String METRICS_NAME = "import";
+
+    // Writer sending the items to the index
+    private SolrItemWriter _itemWriter = new DefaultSolrItemWriter(  );
+
+    /**
+     * Sets the writer sending the items to the index
+     *
+     * @param itemWriter the writer
+     */
+    public void setItemWriter( SolrItemWriter itemWriter )
+    {
+        _itemWriter = itemWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDescription(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_DESCRIPTION );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_NAME );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getVersion(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_VERSION );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> indexDocuments(  )
+    {
+        File file = new File( AppPathService.getPath( SolrComarquageExportDaemon.PROPERTY_EXPORT_FILE ) );
+
+        // Metrics of the run, exported over JMX
+        IndexingMetrics metrics = IndexingMetrics.getInstance( METRICS_NAME );
+        metrics.startRun(  );
+
+        // Sends the exported items to the index by batches
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( _itemWriter, COM_INDEXATION_ERROR, metrics );
+        SolrItemLoader loader = new SolrItemLoader( file );
+        List<String> lstErrors = new ArrayList<String>(  );
+
+        try
+        {
+            metrics.addFileScanned(  );
+            lstErrors.addAll( loader.load( writer ) );
+            metrics.addBytesRead( file.length(  ) );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( COM_IMPORT_ERROR + file, e );
+            lstErrors.add( COM_IMPORT_ERROR + file + " : " + e.getMessage(  ) );
+        }
+        finally
+        {
+            // The invalid lines are the errors of the parse phase
+            for ( int i = 0; i < lstErrors.size(  ); i++ )
+            {
+                metrics.addError(  );
+            }
+
+            // The threads of the writer are stopped even when the load fails
+            lstErrors.addAll( writer.close(  ) );
+        }
+
+        metrics.endRun(  );
+        AppLogService.info( COM_IMPORTED + loader.getItemCount(  ) );
+        AppLogService.info( COM_METRICS + metrics.getSummary(  ) );
+
+        return lstErrors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnable(  )
+    {
+        return "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_INDEXER_ENABLE ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Field> getAdditionalFields(  )
+    {
+        // No additional fields for this indexer
+        return new ArrayList<Field>(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<SolrItem> getDocuments( String strIdDocument )
+    {
+        // The incremental indexing is handled by the public and local indexers
+        return new ArrayList<SolrItem>(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getResourceUid( String strResourceId, String strResourceType )
+    {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> getResourcesName(  )
+    {
+        return new ArrayList<String>(  );
+    }
+}
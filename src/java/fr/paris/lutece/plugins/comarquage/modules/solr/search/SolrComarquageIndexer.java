@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.search.solr.business.field.Field;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * The Comarquage indexer for Solr search platform, indexing the public and local cards in a single run :
+ * the files of both corpora are parsed by a shared pool of threads, and all the items are sent by the
+ * same batch writer. It replaces the public and local indexers, which must then be disabled
+ */
+public class SolrComarquageIndexer implements SolrIndexer
+{
+    private static final String PROPERTY_DESCRIPTION = "comarquage-solr.indexing.comarquageIndexer.description";
+    private static final String PROPERTY_NAME = "comarquage-solr.indexing.comarquageIndexer.name";
+    private static final String PROPERTY_VERSION = "comarquage-solr.indexing.comarquageIndexer.version";
+    private static final String PROPERTY_INDEXER_ENABLE = "comarquage-solr.indexing.comarquageIndexer.enable";
+    private static final String PROPERTY_ENGINE_THREADS = "comarquage-solr.indexing.engine.threads";
+    private static final String COM_INDEXATION_ERROR = "[SolrComarquageIndexer] An error occured during the indexation of an element ";
+    private static final String COM_LOG_PREFIX = "[SolrComarquageIndexer] ";
+    private static final String METRICS_NAME = "comarquage";
+
+    // Indexers of each corpus, for the incremental indexing
+    private final SolrComarquagePublicIndexer _publicIndexer = new SolrComarquagePublicIndexer(  );
+    private final SolrComarquageLocalIndexer _localIndexer = new SolrComarquageLocalIndexer(  );
+
+    // Writer sending the items to the index
+    private SolrItemWriter _itemWriter = new DefaultSolrItemWriter(  );
+
+    /**
+     * Sets the writer sending the items to the index
+     *
+     * @param itemWriter the writer
+     */
+    public void setItemWriter( SolrItemWriter itemWriter )
+    {
+        _itemWriter = itemWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDescription(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_DESCRIPTION );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_NAME );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getVersion(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_VERSION );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> indexDocuments(  )
+    {
+        // The files of both corpora are parsed with a shared pool of threads
+        ComarquageIndexingRun run = new ComarquageIndexingRun( METRICS_NAME, COM_LOG_PREFIX, COM_INDEXATION_ERROR );
+        run.setPublicCards( true );
+        run.setLocalCards( true );
+        run.setThreads( AppPropertiesService.getPropertyInt( PROPERTY_ENGINE_THREADS, 0 ) );
+
+        return run.run( _itemWriter );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnable(  )
+    {
+        return "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_INDEXER_ENABLE ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Field> getAdditionalFields(  )
+    {
+        // No additional fields for this indexer
+        return new ArrayList<Field>(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<SolrItem> getDocuments( String strIdDocument )
+    {
+        // The path ID of a local card starts with the local tree, the other IDs are public cards
+        List<SolrItem> listDocuments = _localIndexer.getDocuments( strIdDocument );
+
+        if ( listDocuments.isEmpty(  ) )
+        {
+            listDocuments = _publicIndexer.getDocuments( strIdDocument );
+        }
+
+        return listDocuments;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getResourceUid( String strResourceId, String strResourceType )
+    {
+        String strUid = _publicIndexer.getResourceUid( strResourceId, strResourceType );
+
+        if ( strUid == null )
+        {
+            strUid = _localIndexer.getResourceUid( strResourceId, strResourceType );
+        }
+
+        return strUid;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> getResourcesName(  )
+    {
+        List<String> listResourcesName = new ArrayList<String>(  );
+        listResourcesName.addAll( _publicIndexer.getResourcesName(  ) );
+        listResourcesName.addAll( _localIndexer.getResourcesName(  ) );
+
+        return listResourcesName;
+    }
+}
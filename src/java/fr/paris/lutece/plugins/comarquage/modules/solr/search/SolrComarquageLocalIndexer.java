@@ -37,11 +37,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrLocalParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
 import fr.paris.lutece.plugins.search.solr.business.field.Field;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
-import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 
@@ -55,9 +54,30 @@ public class SolrComarquageLocalIndexer implements SolrIndexer
     private static final String PROPERTY_NAME = "comarquage-solr.indexing.localIndexer.name";
     private static final String PROPERTY_VERSION = "comarquage-solr.indexing.localIndexer.version";
     private static final String PROPERTY_INDEXER_ENABLE = "comarquage-solr.indexing.localIndexer.enable";
+    private static final String PROPERTY_PARSER_THREADS = "comarquage-solr.indexing.localParserThreads";
+
+    /**
+     * The resource type of the local cards, for the incremental indexing. The ID of a resource is the path ID of the card
+     */
+    public static final String RESOURCE_TYPE = "COMARQUAGE_LOCAL";
 
     private static final String COM_INDEXATION_ERROR = "[SolrComarquageLocalIndexer] An error occured during the indexation of a local element ";
+    private static final String COM_LOG_PREFIX = "[SolrComarquageLocalIndexer] ";
+    private static final String METRICS_NAME = "local";
     
+    // Writer sending the items to the index
+    private SolrItemWriter _itemWriter = new DefaultSolrItemWriter(  );
+
+    /**
+     * Sets the writer sending the items to the index
+     *
+     * @param itemWriter the writer
+     */
+    public void setItemWriter( SolrItemWriter itemWriter )
+    {
+        _itemWriter = itemWriter;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -87,28 +107,12 @@ public class SolrComarquageLocalIndexer implements SolrIndexer
      */
     public List<String> indexDocuments(  )
     {
-        // Parses the local cards
-        CoMarquageSolrLocalParser localParser = new CoMarquageSolrLocalParser(  );
-
-        // Gets the list of solr documents (to add to the index)
-        List<SolrItem> listDocuments = localParser.getLocalSolrItems(  );
+        // The local cards are parsed in order, or with the configured number of parser threads
+        ComarquageIndexingRun run = new ComarquageIndexingRun( METRICS_NAME, COM_LOG_PREFIX, COM_INDEXATION_ERROR );
+        run.setLocalCards( true );
+        run.setThreads( Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PARSER_THREADS, 1 ) ) );
 
-        List<String> lstErrors = new ArrayList<String>(  );
-        
-        for ( SolrItem solrItem : listDocuments )
-        {
-        	try
-        	{
-        		SolrIndexerService.write( solrItem );
-        	}
-            catch ( Exception e )
-			{
-				lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
-				AppLogService.error( COM_INDEXATION_ERROR , e );
-			}
-        }
-        
-        return lstErrors;
+        return run.run( _itemWriter );
     }
 
     /**
@@ -133,8 +137,19 @@ public class SolrComarquageLocalIndexer implements SolrIndexer
      */
     public List<SolrItem> getDocuments( String strIdDocument )
     {
-        // There is no incremental indexation
-        return null;
+        final List<SolrItem> listDocuments = new ArrayList<SolrItem>(  );
+
+        // Parses the card whose path ID is given
+        CoMarquageSolrLocalParser parser = new CoMarquageSolrLocalParser( new SolrItemSink(  )
+                {
+                    public void accept( SolrItem item )
+                    {
+                        listDocuments.add( item );
+                    }
+                } );
+        parser.parse( strIdDocument );
+
+        return listDocuments;
     }
 
     /**
@@ -142,7 +157,11 @@ public class SolrComarquageLocalIndexer implements SolrIndexer
      */
     public String getResourceUid( String strResourceId, String strResourceType )
     {
-        // There is no incremental indexation
+        if ( RESOURCE_TYPE.equals( strResourceType ) )
+        {
+            return CoMarquageSolrLocalParser.getUid( strResourceId );
+        }
+
         return null;
     }
 
@@ -151,7 +170,9 @@ public class SolrComarquageLocalIndexer implements SolrIndexer
      */
     public List<String> getResourcesName(  )
     {
-        // There is no incremental indexation
-        return null;
+        List<String> listResourcesName = new ArrayList<String>(  );
+        listResourcesName.add( RESOURCE_TYPE );
+
+        return listResourcesName;
     }
 }
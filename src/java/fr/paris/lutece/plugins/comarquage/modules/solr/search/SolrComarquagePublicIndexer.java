@@ -37,11 +37,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrPublicParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
 import fr.paris.lutece.plugins.search.solr.business.field.Field;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
-import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 
@@ -56,8 +55,28 @@ public class SolrComarquagePublicIndexer implements SolrIndexer
     private static final String PROPERTY_VERSION = "comarquage-solr.indexing.publicIndexer.version";
     private static final String PROPERTY_INDEXER_ENABLE = "comarquage-solr.indexing.publicIndexer.enable";
 
+    /**
+     * The resource type of the public cards, for the incremental indexing. The ID of a resource is the path ID of the card
+     */
+    public static final String RESOURCE_TYPE = "COMARQUAGE_PUBLIC";
+
     private static final String COM_INDEXATION_ERROR = "[SolrComarquagePublicIndexer] An error occured during the indexation of a plublic element ";
+    private static final String COM_LOG_PREFIX = "[SolrComarquagePublicIndexer] ";
+    private static final String METRICS_NAME = "public";
     
+    // Writer sending the items to the index
+    private SolrItemWriter _itemWriter = new DefaultSolrItemWriter(  );
+
+    /**
+     * Sets the writer sending the items to the index
+     *
+     * @param itemWriter the writer
+     */
+    public void setItemWriter( SolrItemWriter itemWriter )
+    {
+        _itemWriter = itemWriter;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -87,28 +106,11 @@ public class SolrComarquagePublicIndexer implements SolrIndexer
      */
     public List<String> indexDocuments(  )
     {
-        // Parses the Public cards
-        CoMarquageSolrPublicParser localParser = new CoMarquageSolrPublicParser(  );
-
-        // Gets the list of solr documents (to add to the index)
-        List<SolrItem> listDocuments = localParser.getPublicSolrItems(  );
+        // The index files are parsed in order by the calling thread
+        ComarquageIndexingRun run = new ComarquageIndexingRun( METRICS_NAME, COM_LOG_PREFIX, COM_INDEXATION_ERROR );
+        run.setPublicCards( true );
 
-        List<String> lstErrors = new ArrayList<String>(  );
-        
-        for ( SolrItem solrItem : listDocuments )
-        {
-        	try
-			{
-        		SolrIndexerService.write( solrItem );
-			}
-			catch ( Exception e )
-			{
-				lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
-				AppLogService.error( COM_INDEXATION_ERROR , e );
-			}
-        }
-        
-        return lstErrors;
+        return run.run( _itemWriter );
     }
 
     /**
@@ -133,8 +135,19 @@ public class SolrComarquagePublicIndexer implements SolrIndexer
      */
     public List<SolrItem> getDocuments( String strIdDocument )
     {
-        // There is no incremental indexation
-        return null;
+        final List<SolrItem> listDocuments = new ArrayList<SolrItem>(  );
+
+        // Parses the card whose path ID is given
+        CoMarquageSolrPublicParser parser = new CoMarquageSolrPublicParser( new SolrItemSink(  )
+                {
+                    public void accept( SolrItem item )
+                    {
+                        listDocuments.add( item );
+                    }
+                } );
+        parser.parse( strIdDocument );
+
+        return listDocuments;
     }
 
     /**
@@ -142,7 +155,11 @@ public class SolrComarquagePublicIndexer implements SolrIndexer
      */
     public String getResourceUid( String strResourceId, String strResourceType )
     {
-        // There is no incremental indexation
+        if ( RESOURCE_TYPE.equals( strResourceType ) )
+        {
+            return CoMarquageSolrPublicParser.getUid( strResourceId );
+        }
+
         return null;
     }
 
@@ -151,7 +168,9 @@ public class SolrComarquagePublicIndexer implements SolrIndexer
      */
     public List<String> getResourcesName(  )
     {
-        // There is no incremental indexation
-        return null;
+        List<String> listResourcesName = new ArrayList<String>(  );
+        listResourcesName.add( RESOURCE_TYPE );
+
+        return listResourcesName;
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.LocalCardsWatcher;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CoMarquageSolrLocalParser;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CorpusDescriptor;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Daemon watching the local cards tree, to index the changed cards within seconds instead of
+ * waiting for the next full indexing. At each run, the cards changed since the previous run are
+ * parsed and sent to the index, the items of the removed cards are deleted from the index, and the
+ * changes are committed. The daemon records the UIDs of the items of the cards it parses, which are
+ * deleted with their card ; the other cards are deleted under the UID of their path.
+ * The index of the local cards must have been built by a full indexing before.
+ * The watcher is closed when the webapp shuts down.
+ */
+public class SolrComarquageWatchDaemon extends Daemon
+{
+    private static final String PROPERTY_DEBOUNCE = "comarquage-solr.watch.debounce";
+    private static final long DEFAULT_DEBOUNCE = 1000L;
+    private static final String COM_INDEXATION_ERROR = "[SolrComarquageWatchDaemon] An error occured during the indexation of a local element ";
+    private static final String COM_DELETION_ERROR = "[SolrComarquageWatchDaemon] An error occured during the deletion of the removed local elements ";
+    private static final String COM_COMMIT_ERROR = "[SolrComarquageWatchDaemon] An error occured during the commit of the changed local elements ";
+    private static final String COM_METRICS = "[SolrComarquageWatchDaemon] ";
+    private static final String METRICS_NAME = "watch";
+    private static final String SHUTDOWN_SERVICE_NAME = "comarquage-solr local cards watcher";
+
+    // Watcher of the local cards tree, created by the first run
+    private LocalCardsWatcher _watcher;
+    private boolean _bShutdown;
+
+    // UIDs of the items of the cards indexed by the daemon, by card file
+    private final Map<Path, List<String>> _mapFileUids = new HashMap<Path, List<String>>(  );
+
+    // Writer sending the items to the index
+    private SolrItemWriter _itemWriter = new DefaultSolrItemWriter(  );
+
+    /**
+     * Sets the writer sending the items to the index
+     *
+     * @param itemWriter the writer
+     */
+    public void setItemWriter( SolrItemWriter itemWriter )
+    {
+        _itemWriter = itemWriter;
+    }
+
+    /**
+     * Creates the daemon, whose watcher is closed when the webapp shuts down
+     */
+    public SolrComarquageWatchDaemon(  )
+    {
+        ShutdownServiceManager.registerShutdownService( new ShutdownService(  )
+            {
+                public String getName(  )
+                {
+                    return SHUTDOWN_SERVICE_NAME;
+                }
+
+                public void process(  )
+                {
+                    shutdown(  );
+                }
+            } );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void run(  )
+    {
+        if ( _bShutdown )
+        {
+            return;
+        }
+
+        if ( _watcher == null )
+        {
+            CorpusDescriptor corpus = CoMarquageSolrLocalParser.getCorpusDescriptor( null );
+            File fileRoot = corpus.getRoots(  ).get( 0 );
+
+            try
+            {
+                _watcher = new LocalCardsWatcher( fileRoot.toPath(  ), corpus.getPathFilter(  ),
+                        AppPropertiesService.getPropertyLong( PROPERTY_DEBOUNCE, DEFAULT_DEBOUNCE ) );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to watch the local cards of " + fileRoot, e );
+                setLastRunLogs( "Unable to watch the local cards : " + e.getMessage(  ) );
+
+                return;
+            }
+
+            setLastRunLogs( "Watching " + _watcher.getDirectoryCount(  ) + " directories of local cards" );
+
+            return;
+        }
+
+        _watcher.poll(  );
+
+        List<Path> listFiles = _watcher.takeSettledFiles(  );
+
+        if ( listFiles.isEmpty(  ) )
+        {
+            setLastRunLogs( "No changed local card, " + _watcher.getPendingCount(  ) + " pending" );
+
+            return;
+        }
+
+        setLastRunLogs( index( listFiles ) );
+    }
+
+    /**
+     * Stops watching the local cards tree
+     */
+    public synchronized void shutdown(  )
+    {
+        _bShutdown = true;
+
+        if ( _watcher != null )
+        {
+            _watcher.close(  );
+            _watcher = null;
+        }
+    }
+
+    /**
+     * Indexes the changed local cards, deletes the items of the removed ones and commits them. The
+     * errors of the run count the cards which could not be parsed as well as the failed writes,
+     * deletions and commits
+     *
+     * @param listFiles the changed files
+     * @return the logs of the run
+     */
+    private String index( List<Path> listFiles )
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance( METRICS_NAME );
+        metrics.startRun(  );
+
+        final SolrItemBatchWriter writer = new SolrItemBatchWriter( _itemWriter, COM_INDEXATION_ERROR, metrics );
+        final List<String> listFileUids = new ArrayList<String>(  );
+        CoMarquageSolrLocalParser parser = new CoMarquageSolrLocalParser( new SolrItemSink(  )
+                {
+                    public void accept( SolrItem item )
+                    {
+                        listFileUids.add( item.getUid(  ) );
+                        writer.accept( item );
+                    }
+                } );
+        parser.setMetrics( metrics );
+
+        List<String> listRemovedUids = new ArrayList<String>(  );
+        int nRemovedCards = 0;
+
+        try
+        {
+            for ( Path pathFile : listFiles )
+            {
+                File fileCard = pathFile.toFile(  );
+                List<String> listPreviousUids = _mapFileUids.get( pathFile );
+
+                if ( fileCard.isFile(  ) )
+                {
+                    listFileUids.clear(  );
+
+                    if ( parser.parseCorpusFile( fileCard ) )
+                    {
+                        // A card whose URL has changed leaves the item of its previous URL
+                        if ( listPreviousUids != null )
+                        {
+                            for ( String strUid : listPreviousUids )
+                            {
+                                if ( !listFileUids.contains( strUid ) )
+                                {
+                                    listRemovedUids.add( strUid );
+                                }
+                            }
+                        }
+
+                        _mapFileUids.put( pathFile, new ArrayList<String>( listFileUids ) );
+                    }
+                }
+                else if ( !fileCard.exists(  ) )
+                {
+                    nRemovedCards++;
+                    _mapFileUids.remove( pathFile );
+
+                    if ( listPreviousUids != null )
+                    {
+                        listRemovedUids.addAll( listPreviousUids );
+                    }
+                    else
+                    {
+                        // Card indexed by the full indexing : its item is indexed under the path ID of the card
+                        String strPathId = parser.getPathId( fileCard );
+
+                        if ( strPathId != null )
+                        {
+                            listRemovedUids.add( CoMarquageSolrLocalParser.getUid( strPathId ) );
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            writer.close(  );
+        }
+
+        if ( !listRemovedUids.isEmpty(  ) )
+        {
+            try
+            {
+                writer.delete( listRemovedUids );
+            }
+            catch ( Exception e )
+            {
+                metrics.addError(  );
+                AppLogService.error( COM_DELETION_ERROR + listRemovedUids, e );
+            }
+        }
+
+        // The changes are only searchable once committed
+        if ( ( metrics.getItemsSent(  ) > 0 ) || ( metrics.getItemsDeleted(  ) > 0 ) )
+        {
+            try
+            {
+                writer.commit(  );
+            }
+            catch ( Exception e )
+            {
+                metrics.addError(  );
+                AppLogService.error( COM_COMMIT_ERROR, e );
+            }
+        }
+
+        metrics.endRun(  );
+        AppLogService.info( COM_METRICS + metrics.getSummary(  ) );
+
+        return metrics.getItemsSent(  ) + " items of changed local cards sent, " + nRemovedCards +
+        " removed local cards, " + metrics.getErrors(  ) + " errors";
+    }
+}
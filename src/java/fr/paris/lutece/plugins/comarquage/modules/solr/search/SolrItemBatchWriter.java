@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Sink grouping the Solr items into batches, each batch being sent to Solr with a single update
+ * following the {@link SolrWritePolicy}.
+ * The full batches are sent by the thread handing the items, or with a configured concurrency by as many
+ * writer lanes, running on platform threads or on virtual threads when the JVM supports them.
+ * The items are dispatched to the lanes by UID, each lane sending its batches one after another :
+ * the items of a UID are sent in the order they have been handed, while the items of different UIDs
+ * may reach the index in any order. {@link #flush()} and {@link #close()} wait for all the batches sent.
+ * A timer sends the batches whose first item has been waiting for more than the configured delay,
+ * even when no other item is handed : from its own thread with a single lane, or through the writer
+ * lanes. A delay of 0 disables the timer, the batches being only sent once full or flushed.
+ * No commit is issued here : the index is committed once, at the end of the indexing run, by
+ * the Solr plugin.
+ * The items must be handed by one thread at a time.
+ */
+public class SolrItemBatchWriter implements SolrItemSink, Flushable
+{
+    // Batch properties
+    private static final String PROPERTY_BATCH_SIZE = "comarquage-solr.indexing.batch.size";
+    private static final String PROPERTY_BATCH_MAX_DELAY = "comarquage-solr.indexing.batch.maxDelay";
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_BATCH_MAX_DELAY = 5000L;
+
+    // Concurrent writes properties
+    private static final String PROPERTY_WRITE_CONCURRENCY = "comarquage-solr.write.concurrency";
+    private static final String PROPERTY_WRITE_VIRTUAL_THREADS = "comarquage-solr.write.virtualThreads";
+    private static final String THREAD_NAME = "comarquage-solr-writer";
+    private static final String TIMER_THREAD_NAME = "comarquage-solr-batch-timer";
+
+    // Batches of a lane being sent or waiting to be sent
+    private static final int MAX_PENDING_BATCHES = 2;
+
+    // Strings
+    private static final String STRING_ERROR_SEPARATOR = " : ";
+
+    // Variables
+    private final int _nBatchSize;
+    private final long _lMaxDelay;
+    private final String _strErrorMessage;
+    private final SolrItemWriter _itemWriter;
+    private final SolrWritePolicy _policy;
+    private SolrOrphanPurge _purge;
+    private final IndexingMetrics _metrics;
+    private final Lane[] _lanes;
+    private volatile ScheduledExecutorService _timer;
+    private final List<String> _listErrors = Collections.synchronizedList( new ArrayList<String>(  ) );
+
+    /**
+     * Creates a new batch writer, configured from comarquage-solr.properties
+     *
+     * @param itemWriter the writer sending the batches to the index
+     * @param strErrorMessage the message logged when an item cannot be indexed
+     * @param metrics the metrics of the run, counting the sent items, the errors and the write time
+     */
+    public SolrItemBatchWriter( SolrItemWriter itemWriter, String strErrorMessage, IndexingMetrics metrics )
+    {
+        _itemWriter = itemWriter;
+        _policy = new SolrWritePolicy(  );
+        _metrics = metrics;
+        _nBatchSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+        _lMaxDelay = AppPropertiesService.getPropertyLong( PROPERTY_BATCH_MAX_DELAY, DEFAULT_BATCH_MAX_DELAY );
+        _strErrorMessage = strErrorMessage;
+
+        // A single lane sends the batches from the calling thread
+        int nConcurrency = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_WRITE_CONCURRENCY, 1 ) );
+        ThreadFactory factory = null;
+
+        if ( nConcurrency > 1 )
+        {
+            factory = AppPropertiesService.getPropertyBoolean( PROPERTY_WRITE_VIRTUAL_THREADS, false )
+                ? getVirtualThreadFactory(  ) : null;
+
+            if ( factory == null )
+            {
+                factory = new ThreadFactory(  )
+                        {
+                            public Thread newThread( Runnable runnable )
+                            {
+                                Thread thread = new Thread( runnable, THREAD_NAME );
+                                thread.setDaemon( true );
+
+                                return thread;
+                            }
+                        };
+            }
+        }
+
+        _lanes = new Lane[nConcurrency];
+
+        for ( int i = 0; i < nConcurrency; i++ )
+        {
+            _lanes[i] = new Lane( ( factory == null ) ? null : Executors.newSingleThreadExecutor( factory ) );
+        }
+    }
+
+    /**
+     * Gets a factory of virtual threads, available from Java 21
+     *
+     * @return the factory, or null if the JVM has no virtual threads
+     */
+    private static ThreadFactory getVirtualThreadFactory(  )
+    {
+        try
+        {
+            // Thread.ofVirtual(  ).name( THREAD_NAME ).factory(  ), through reflection to run on older JVMs
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            Class<?> classBuilder = Class.forName( "java.lang.Thread$Builder" );
+            builder = classBuilder.getMethod( "name", String.class ).invoke( builder, THREAD_NAME );
+
+            return (ThreadFactory) classBuilder.getMethod( "factory" ).invoke( builder );
+        }
+        catch ( Exception e )
+        {
+            AppLogService.info( "Virtual threads are not available, the Solr writes use platform threads" );
+
+            return null;
+        }
+    }
+
+    /**
+     * Adds the item to the current batch. The batch is sent when it is full, or when its
+     * first item has been waiting for more than the configured delay
+     *
+     * @param item the Solr item
+     */
+    public void accept( SolrItem item )
+    {
+        Lane lane = ( _lanes.length == 1 ) ? _lanes[0]
+                                           : _lanes[( item.getUid(  ).hashCode(  ) & Integer.MAX_VALUE ) % _lanes.length];
+
+        if ( _purge != null )
+        {
+            _purge.add( item );
+        }
+
+        if ( ( _lMaxDelay > 0 ) && ( _timer == null ) )
+        {
+            startTimer(  );
+        }
+
+        synchronized ( lane )
+        {
+            if ( lane._listBatch.isEmpty(  ) )
+            {
+                lane._lBatchStart = System.currentTimeMillis(  );
+            }
+
+            lane._listBatch.add( item );
+
+            if ( ( lane._listBatch.size(  ) >= _nBatchSize ) ||
+                    ( ( _lMaxDelay > 0 ) && ( ( System.currentTimeMillis(  ) - lane._lBatchStart ) >= _lMaxDelay ) ) )
+            {
+                send( lane );
+            }
+        }
+    }
+
+    /**
+     * Starts the timer sending the batches waiting for more than the configured delay, checked
+     * every half of the delay, unless it has already been started
+     */
+    private synchronized void startTimer(  )
+    {
+        if ( _timer != null )
+        {
+            return;
+        }
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(  )
+                {
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, TIMER_THREAD_NAME );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    }
+                } );
+
+        long lPeriod = Math.max( 1L, _lMaxDelay / 2 );
+        timer.scheduleWithFixedDelay( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    for ( Lane lane : _lanes )
+                    {
+                        synchronized ( lane )
+                        {
+                            if ( !lane._listBatch.isEmpty(  ) &&
+                                    ( ( System.currentTimeMillis(  ) - lane._lBatchStart ) >= _lMaxDelay ) )
+                            {
+                                try
+                                {
+                                    send( lane );
+                                }
+                                catch ( Error e )
+                                {
+                                    // Thrown again to the thread handing the items
+                                    lane._error = e;
+                                }
+                            }
+                        }
+                    }
+                }
+            }, lPeriod, lPeriod, TimeUnit.MILLISECONDS );
+        _timer = timer;
+    }
+
+    /**
+     * Sends the pending items to Solr, and waits for all the batches sent
+     */
+    public void flush(  )
+    {
+        for ( Lane lane : _lanes )
+        {
+            synchronized ( lane )
+            {
+                send( lane );
+            }
+        }
+
+        for ( Lane lane : _lanes )
+        {
+            if ( lane._executor != null )
+            {
+                // The writes are bounded by the write policy, they are waited for even when interrupted
+                lane._pending.acquireUninterruptibly( MAX_PENDING_BATCHES );
+                lane._pending.release( MAX_PENDING_BATCHES );
+            }
+
+            lane.checkError(  );
+        }
+    }
+
+    /**
+     * Sends the current batch of a lane : from the calling thread, or from the thread of the lane
+     * once its previous batch has been sent. The lane is locked by the caller
+     *
+     * @param lane the lane
+     */
+    private void send( final Lane lane )
+    {
+        if ( lane._listBatch.isEmpty(  ) )
+        {
+            return;
+        }
+
+        final List<SolrItem> listItems = new ArrayList<SolrItem>( lane._listBatch );
+        lane._listBatch.clear(  );
+
+        if ( lane._executor == null )
+        {
+            lane.checkError(  );
+            write( listItems );
+
+            return;
+        }
+
+        lane._pending.acquireUninterruptibly(  );
+        lane.checkError(  );
+        lane._executor.execute( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    try
+                    {
+                        write( listItems );
+                    }
+                    catch ( Error e )
+                    {
+                        lane._error = e;
+                    }
+                    finally
+                    {
+                        lane._pending.release(  );
+                    }
+                }
+            } );
+    }
+
+    /**
+     * Sets the purge recording the items of the run
+     *
+     * @param purge the purge
+     */
+    public void setOrphanPurge( SolrOrphanPurge purge )
+    {
+        _purge = purge;
+    }
+
+    /**
+     * Deletes items from the index, following the write policy
+     *
+     * @param listUids the UIDs of the items
+     * @throws Exception if the items cannot be deleted
+     */
+    public void delete( List<String> listUids ) throws Exception
+    {
+        _policy.delete( _itemWriter, listUids, _metrics );
+        _metrics.addItemsDeleted( listUids.size(  ) );
+    }
+
+    /**
+     * Commits the items sent and deleted, following the write policy. The items must have been
+     * sent, by {@link #flush()} or {@link #close()}, to be committed.
+     *
+     * @throws Exception if the items cannot be committed
+     */
+    public void commit(  ) throws Exception
+    {
+        _policy.commit( _itemWriter, _metrics );
+    }
+
+    /**
+     * Lists the UIDs of the indexed items of a type, one page at a time
+     *
+     * @param strType the type of the items
+     * @param strAfterUid the last UID of the previous page, or null for the first page
+     * @param nRows the maximum number of UIDs of the page
+     * @param listUids the list receiving the UIDs of the page
+     * @return the number of items of the type whose UID follows the previous page
+     * @throws Exception if the UIDs cannot be listed
+     * @see SolrItemWriter#getUids(String, String, int, List)
+     */
+    public long getUids( String strType, String strAfterUid, int nRows, List<String> listUids )
+        throws Exception
+    {
+        return _itemWriter.getUids( strType, strAfterUid, nRows, listUids );
+    }
+
+    /**
+     * Sends the pending items and returns the errors of the run
+     *
+     * @return the list of errors, one per card that could not be indexed
+     */
+    public List<String> close(  )
+    {
+        try
+        {
+            flush(  );
+        }
+        finally
+        {
+            stopTimer(  );
+
+            // The threads of the lanes are stopped even when a write has failed
+            for ( Lane lane : _lanes )
+            {
+                if ( lane._executor != null )
+                {
+                    lane._executor.shutdown(  );
+                }
+            }
+        }
+
+        return _listErrors;
+    }
+
+    /**
+     * Stops the timer, if it has been started
+     */
+    private synchronized void stopTimer(  )
+    {
+        if ( _timer != null )
+        {
+            _timer.shutdown(  );
+        }
+    }
+
+    /**
+     * Writes a batch of items. If the batch is rejected, it is split in two halves which
+     * are written separately, down to single items, so that the failing cards are identified.
+     * A batch still failing for a transient reason after its retries is not split : all its
+     * items are in error
+     *
+     * @param listItems the items to write
+     */
+    private void write( List<SolrItem> listItems )
+    {
+        try
+        {
+            _policy.write( _itemWriter, listItems, _metrics );
+            _metrics.addItemsSent( listItems.size(  ) );
+        }
+        catch ( Exception e )
+        {
+            if ( ( listItems.size(  ) == 1 ) || _policy.isRetryable( e ) || ( e instanceof InterruptedException ) )
+            {
+                for ( SolrItem item : listItems )
+                {
+                    _metrics.addError(  );
+                    _listErrors.add( item.getUid(  ) + STRING_ERROR_SEPARATOR + SolrIndexerService.buildErrorMessage( e ) );
+                    AppLogService.error( _strErrorMessage + item.getUid(  ), e );
+                }
+
+                if ( e instanceof InterruptedException )
+                {
+                    Thread.currentThread(  ).interrupt(  );
+                }
+            }
+            else
+            {
+                int nMiddle = listItems.size(  ) / 2;
+                write( listItems.subList( 0, nMiddle ) );
+                write( listItems.subList( nMiddle, listItems.size(  ) ) );
+            }
+        }
+    }
+
+    /**
+     * Lane of the writer : the current batch of the items dispatched to it, and the single thread
+     * sending its batches, or none when the batches are sent by the calling thread. The batch is
+     * guarded by the lock of the lane, shared with the timer
+     */
+    private static final class Lane
+    {
+        private final List<SolrItem> _listBatch = new ArrayList<SolrItem>(  );
+        private final ExecutorService _executor;
+        private final Semaphore _pending = new Semaphore( MAX_PENDING_BATCHES );
+        private long _lBatchStart;
+        private volatile Error _error;
+
+        /**
+         * Creates a lane
+         *
+         * @param executor the executor sending the batches, or null to send them from the calling thread
+         */
+        private Lane( ExecutorService executor )
+        {
+            _executor = executor;
+        }
+
+        /**
+         * Throws again in the calling thread an error thrown by the thread of the lane
+         */
+        private void checkError(  )
+        {
+            if ( _error != null )
+            {
+                throw _error;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.util.Collection;
+import java.util.List;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Access of the comarquage indexers to the Solr index : adds, deletes, commits and lists the items
+ */
+public interface SolrItemWriter
+{
+    /**
+     * Adds a batch of items to the index
+     *
+     * @param listItems the items
+     * @throws Exception if the items cannot be added
+     */
+    void write( Collection<SolrItem> listItems ) throws Exception;
+
+    /**
+     * Deletes a batch of items from the index
+     *
+     * @param listUids the UIDs of the items
+     * @throws Exception if the items cannot be deleted
+     */
+    void delete( List<String> listUids ) throws Exception;
+
+    /**
+     * Commits the items added and deleted since the previous commit, making them searchable
+     *
+     * @throws Exception if the items cannot be committed
+     */
+    void commit(  ) throws Exception;
+
+    /**
+     * Lists the UIDs of the items of a type, in the ascending order of the UIDs, one page at a time
+     *
+     * @param strType the type of the items
+     * @param strAfterUid the last UID of the previous page, or null for the first page
+     * @param nRows the maximum number of UIDs of the page
+     * @param listUids the list receiving the UIDs of the page
+     * @return the number of items of the type whose UID follows the previous page
+     * @throws Exception if the UIDs cannot be listed
+     */
+    long getUids( String strType, String strAfterUid, int nRows, List<String> listUids )
+        throws Exception;
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.UidSet;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Purge of the orphan items of the index : the items whose card has been removed from the
+ * comarquage XML files. The UIDs of the items produced by a run are kept in a compact {@link UidSet},
+ * and once the run is complete the UIDs of the index are listed, for each type of the produced
+ * items and of this webapp, page by page : the UIDs missing from the set are deleted by batches.
+ * When the run would delete more than the configured share of the items of a type, the purge of
+ * the type is skipped, as the files are more likely missing than removed.
+ * This class is not thread safe : the items are added by the sink of the run.
+ */
+public class SolrOrphanPurge
+{
+    // Properties
+    private static final String PROPERTY_PURGE_ENABLE = "comarquage-solr.indexing.purge.enable";
+    private static final String PROPERTY_PURGE_PAGE_SIZE = "comarquage-solr.indexing.purge.pageSize";
+    private static final String PROPERTY_PURGE_MAX_PERCENT = "comarquage-solr.indexing.purge.maxPercent";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_MAX_PERCENT = 50;
+    private static final int PERCENT = 100;
+
+    // Messages
+    private static final String COM_PURGE = "[SolrOrphanPurge] ";
+
+    // Variables
+    private final int _nPageSize;
+    private final int _nMaxPercent;
+    private final UidSet _setUids = new UidSet(  );
+    private final Map<String, Integer> _mapTypeCounts = new LinkedHashMap<String, Integer>(  );
+
+    /**
+     * Creates a purge configured from comarquage-solr.properties
+     */
+    private SolrOrphanPurge(  )
+    {
+        _nPageSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PURGE_PAGE_SIZE, DEFAULT_PAGE_SIZE ) );
+        _nMaxPercent = AppPropertiesService.getPropertyInt( PROPERTY_PURGE_MAX_PERCENT, DEFAULT_MAX_PERCENT );
+    }
+
+    /**
+     * Creates the purge of a run
+     *
+     * @return the purge, or null if the purge is disabled
+     */
+    public static SolrOrphanPurge create(  )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_PURGE_ENABLE, false ) )
+        {
+            return null;
+        }
+
+        return new SolrOrphanPurge(  );
+    }
+
+    /**
+     * Records an item produced by the run
+     *
+     * @param item the item
+     */
+    public void add( SolrItem item )
+    {
+        if ( _setUids.add( item.getUid(  ) ) )
+        {
+            Integer nCount = _mapTypeCounts.get( item.getType(  ) );
+            _mapTypeCounts.put( item.getType(  ), ( nCount == null ) ? 1 : ( nCount + 1 ) );
+        }
+    }
+
+    /**
+     * Deletes the items of the index which have not been produced by the run. The run must be
+     * complete : the items of the skipped or failed files would be deleted otherwise
+     *
+     * @param writer the writer of the run, once closed
+     * @param metrics the metrics of the run
+     * @param bComplete true if the run has produced the items of all the cards
+     */
+    public void purge( SolrItemBatchWriter writer, IndexingMetrics metrics, boolean bComplete )
+    {
+        if ( !bComplete )
+        {
+            AppLogService.info( COM_PURGE + "Purge of the orphan items skipped, the run is not complete" );
+
+            return;
+        }
+
+        for ( Map.Entry<String, Integer> entry : _mapTypeCounts.entrySet(  ) )
+        {
+            try
+            {
+                purge( writer, entry.getKey(  ), entry.getValue(  ) );
+            }
+            catch ( Exception e )
+            {
+                metrics.addError(  );
+                AppLogService.error( COM_PURGE + "Unable to purge the orphan items of type " + entry.getKey(  ), e );
+            }
+        }
+    }
+
+    /**
+     * Deletes the items of a type which have not been produced by the run
+     *
+     * @param writer the writer of the run
+     * @param strType the type
+     * @param nProduced the number of items of the type produced by the run
+     * @throws Exception if the index cannot be read or the items cannot be deleted
+     */
+    private void purge( SolrItemBatchWriter writer, String strType, int nProduced )
+        throws Exception
+    {
+        List<String> listPage = new ArrayList<String>( _nPageSize );
+        List<String> listOrphans = new ArrayList<String>(  );
+        String strAfterUid = null;
+        long lIndexed = 0;
+        int nDeleted = 0;
+
+        do
+        {
+            listPage.clear(  );
+
+            long lRemaining = writer.getUids( strType, strAfterUid, _nPageSize, listPage );
+
+            if ( strAfterUid == null )
+            {
+                lIndexed = lRemaining;
+
+                if ( ( ( lIndexed - nProduced ) * PERCENT ) > ( lIndexed * _nMaxPercent ) )
+                {
+                    AppLogService.error( COM_PURGE + "Purge of the orphan items of type " + strType +
+                        " skipped : " + nProduced + " items produced for " + lIndexed + " indexed items" );
+
+                    return;
+                }
+            }
+
+            for ( String strUid : listPage )
+            {
+                if ( !_setUids.contains( strUid ) )
+                {
+                    listOrphans.add( strUid );
+                }
+            }
+
+            // The pages follow the UIDs, deleting the previous ones does not shift them
+            if ( listOrphans.size(  ) >= _nPageSize )
+            {
+                writer.delete( listOrphans );
+                nDeleted += listOrphans.size(  );
+                listOrphans.clear(  );
+            }
+
+            if ( !listPage.isEmpty(  ) )
+            {
+                strAfterUid = listPage.get( listPage.size(  ) - 1 );
+            }
+        }
+        while ( listPage.size(  ) == _nPageSize );
+
+        if ( !listOrphans.isEmpty(  ) )
+        {
+            writer.delete( listOrphans );
+            nDeleted += listOrphans.size(  );
+        }
+
+        AppLogService.info( COM_PURGE + nDeleted + " orphan items of type " + strType + " deleted, " + lIndexed +
+            " indexed items checked" );
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrException;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Policy of the writes to the Solr index, configured from comarquage-solr.properties :
+ * <ul>
+ * <li>the items are sent at most at the configured rate, a write waiting until its items fit in the rate;</li>
+ * <li>at most the configured number of writes are in progress at the same time;</li>
+ * <li>a write failing for a transient reason (an I/O error, an unavailable or overloaded server) is
+ * retried after an exponential backoff with jitter, up to the configured number of attempts.</li>
+ * </ul>
+ * The waits and the retries are counted in the metrics of the run. This class is thread safe.
+ */
+public class SolrWritePolicy
+{
+    // Properties
+    private static final String PROPERTY_MAX_DOCS_PER_SECOND = "comarquage-solr.write.maxDocsPerSecond";
+    private static final String PROPERTY_MAX_IN_FLIGHT = "comarquage-solr.write.maxInFlight";
+    private static final String PROPERTY_RETRY_MAX_ATTEMPTS = "comarquage-solr.write.retry.maxAttempts";
+    private static final String PROPERTY_RETRY_INITIAL_DELAY = "comarquage-solr.write.retry.initialDelay";
+    private static final String PROPERTY_RETRY_MAX_DELAY = "comarquage-solr.write.retry.maxDelay";
+    private static final int DEFAULT_MAX_DOCS_PER_SECOND = 0;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 0;
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_RETRY_INITIAL_DELAY = 1000L;
+    private static final long DEFAULT_RETRY_MAX_DELAY = 30000L;
+
+    // HTTP status of the transient Solr errors
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    // Largest exponent of the backoff
+    private static final int MAX_BACKOFF_EXPONENT = 30;
+
+    // Variables
+    private final long _lItemIntervalNanos;
+    private final Semaphore _semaphoreInFlight;
+    private final int _nMaxAttempts;
+    private final long _lInitialDelay;
+    private final long _lMaxDelay;
+    private long _lNextFreeNanos;
+
+    /**
+     * Creates a policy configured from comarquage-solr.properties
+     */
+    public SolrWritePolicy(  )
+    {
+        this( AppPropertiesService.getPropertyInt( PROPERTY_MAX_DOCS_PER_SECOND, DEFAULT_MAX_DOCS_PER_SECOND ),
+            AppPropertiesService.getPropertyInt( PROPERTY_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT ),
+            AppPropertiesService.getPropertyInt( PROPERTY_RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS ),
+            AppPropertiesService.getPropertyLong( PROPERTY_RETRY_INITIAL_DELAY, DEFAULT_RETRY_INITIAL_DELAY ),
+            AppPropertiesService.getPropertyLong( PROPERTY_RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY ) );
+    }
+
+    /**
+     * Creates a policy
+     *
+     * @param nMaxDocsPerSecond the maximum number of items sent per second, or 0 for no limit
+     * @param nMaxInFlight the maximum number of writes in progress, or 0 for no limit
+     * @param nMaxAttempts the maximum number of attempts of a write, 1 for no retry
+     * @param lInitialDelay the delay before the first retry, in milliseconds
+     * @param lMaxDelay the maximum delay between two attempts, in milliseconds
+     */
+    public SolrWritePolicy( int nMaxDocsPerSecond, int nMaxInFlight, int nMaxAttempts, long lInitialDelay,
+        long lMaxDelay )
+    {
+        _lItemIntervalNanos = ( nMaxDocsPerSecond > 0 ) ? ( TimeUnit.SECONDS.toNanos( 1 ) / nMaxDocsPerSecond ) : 0L;
+        _semaphoreInFlight = ( nMaxInFlight > 0 ) ? new Semaphore( nMaxInFlight, true ) : null;
+        _nMaxAttempts = Math.max( 1, nMaxAttempts );
+        _lInitialDelay = Math.max( 0L, lInitialDelay );
+        _lMaxDelay = Math.max( _lInitialDelay, lMaxDelay );
+    }
+
+    /**
+     * Adds a batch of items to the index
+     *
+     * @param writer the writer sending the items
+     * @param listItems the items
+     * @param metrics the metrics of the run
+     * @throws Exception if the items cannot be added, after the retries of a transient failure
+     */
+    public void write( final SolrItemWriter writer, final List<SolrItem> listItems, IndexingMetrics metrics )
+        throws Exception
+    {
+        execute( new Operation(  )
+            {
+                public void run(  ) throws Exception
+                {
+                    writer.write( listItems );
+                }
+            }, listItems.size(  ), metrics );
+    }
+
+    /**
+     * Deletes a batch of items from the index
+     *
+     * @param writer the writer deleting the items
+     * @param listUids the UIDs of the items
+     * @param metrics the metrics of the run
+     * @throws Exception if the items cannot be deleted, after the retries of a transient failure
+     */
+    public void delete( final SolrItemWriter writer, final List<String> listUids, IndexingMetrics metrics )
+        throws Exception
+    {
+        execute( new Operation(  )
+            {
+                public void run(  ) throws Exception
+                {
+                    writer.delete( listUids );
+                }
+            }, listUids.size(  ), metrics );
+    }
+
+    /**
+     * Commits the items added and deleted since the previous commit
+     *
+     * @param writer the writer committing the items
+     * @param metrics the metrics of the run
+     * @throws Exception if the items cannot be committed, after the retries of a transient failure
+     */
+    public void commit( final SolrItemWriter writer, IndexingMetrics metrics )
+        throws Exception
+    {
+        execute( new Operation(  )
+            {
+                public void run(  ) throws Exception
+                {
+                    writer.commit(  );
+                }
+            }, 0, metrics );
+    }
+
+    /**
+     * Checks whether a failure is transient : the same write may succeed later
+     *
+     * @param e the failure
+     * @return true if the write can be retried
+     */
+    public boolean isRetryable( Throwable e )
+    {
+        for ( Throwable cause = e; cause != null; cause = cause.getCause(  ) )
+        {
+            if ( cause instanceof IOException )
+            {
+                return true;
+            }
+
+            if ( cause instanceof SolrException )
+            {
+                int nCode = ( (SolrException) cause ).code(  );
+
+                return ( nCode == HTTP_TOO_MANY_REQUESTS ) || ( nCode == HTTP_SERVICE_UNAVAILABLE );
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs a write, waiting for the rate and the writes in progress, and retrying the transient failures
+     *
+     * @param operation the write
+     * @param nItems the number of items of the write
+     * @param metrics the metrics of the run
+     * @throws Exception if the write fails, or if the thread is interrupted while waiting
+     */
+    private void execute( Operation operation, int nItems, IndexingMetrics metrics )
+        throws Exception
+    {
+        for ( int nAttempt = 1;; nAttempt++ )
+        {
+            acquire( nItems, metrics );
+
+            long lStart = System.nanoTime(  );
+
+            try
+            {
+                operation.run(  );
+
+                return;
+            }
+            catch ( Exception e )
+            {
+                if ( ( nAttempt >= _nMaxAttempts ) || !isRetryable( e ) )
+                {
+                    throw e;
+                }
+            }
+            finally
+            {
+                metrics.addWriteTime( System.nanoTime(  ) - lStart );
+                release(  );
+            }
+
+            metrics.addItemsRetried( nItems );
+            Thread.sleep( getBackoff( nAttempt ) );
+        }
+    }
+
+    /**
+     * Waits until the items fit in the rate and a write can start
+     *
+     * @param nItems the number of items of the write
+     * @param metrics the metrics of the run
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void acquire( int nItems, IndexingMetrics metrics )
+        throws InterruptedException
+    {
+        long lStart = System.nanoTime(  );
+        long lRateWait = reserve( nItems, lStart );
+        boolean bThrottled = lRateWait > 0;
+
+        if ( bThrottled )
+        {
+            TimeUnit.NANOSECONDS.sleep( lRateWait );
+        }
+
+        if ( ( _semaphoreInFlight != null ) && !_semaphoreInFlight.tryAcquire(  ) )
+        {
+            _semaphoreInFlight.acquire(  );
+            bThrottled = true;
+        }
+
+        if ( bThrottled )
+        {
+            metrics.addItemsThrottled( nItems, System.nanoTime(  ) - lStart );
+        }
+    }
+
+    /**
+     * Releases the slot of a write in progress
+     */
+    private void release(  )
+    {
+        if ( _semaphoreInFlight != null )
+        {
+            _semaphoreInFlight.release(  );
+        }
+    }
+
+    /**
+     * Reserves the time needed to send items at the configured rate : each write starts once the
+     * items of the previous writes have been sent at the rate
+     *
+     * @param nItems the number of items
+     * @param lNow the current time, in nanoseconds
+     * @return the time to wait before the write, in nanoseconds
+     */
+    private synchronized long reserve( int nItems, long lNow )
+    {
+        if ( _lItemIntervalNanos == 0 )
+        {
+            return 0L;
+        }
+
+        long lWriteStart = Math.max( lNow, _lNextFreeNanos );
+        _lNextFreeNanos = lWriteStart + ( nItems * _lItemIntervalNanos );
+
+        return lWriteStart - lNow;
+    }
+
+    /**
+     * Gets the delay before a retry : the delay doubles at each attempt up to the maximum delay,
+     * and a random jitter of up to half the delay spreads the retries of concurrent writers
+     *
+     * @param nAttempt the number of the failed attempt, from 1
+     * @return the delay, in milliseconds
+     */
+    private long getBackoff( int nAttempt )
+    {
+        long lDelay = Math.min( _lMaxDelay, _lInitialDelay << Math.min( nAttempt - 1, MAX_BACKOFF_EXPONENT ) );
+        long lHalf = lDelay / 2;
+
+        return lHalf + ThreadLocalRandom.current(  ).nextLong( ( lDelay - lHalf ) + 1 );
+    }
+
+    /**
+     * Write to the index
+     */
+    private interface Operation
+    {
+        /**
+         * Runs the write
+         *
+         * @throws Exception if the write fails
+         */
+        void run(  ) throws Exception;
+    }
+}
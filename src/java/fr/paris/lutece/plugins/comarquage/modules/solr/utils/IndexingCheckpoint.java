@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Checkpoint of an indexer run, persisted on the local disk so that a run interrupted by a
+ * restart or a failure is resumed by the next run instead of starting from zero. The checkpoint
+ * is a journal : each save appends the files completed since the previous save, after their items
+ * have been sent to the index, and the counts of the run so far. The files of the journal are
+ * skipped by the next run, and the journal is deleted once a run is complete. A journal older than
+ * the configured maximum age is ignored.
+ * This class is thread safe.
+ */
+public final class IndexingCheckpoint
+{
+    // Properties
+    private static final String PROPERTY_CHECKPOINT_ENABLE = "comarquage-solr.indexing.checkpoint.enable";
+    private static final String PROPERTY_CHECKPOINT_DIRECTORY = "comarquage-solr.indexing.checkpoint.directory";
+    private static final String PROPERTY_CHECKPOINT_INTERVAL = "comarquage-solr.indexing.checkpoint.interval";
+    private static final String PROPERTY_CHECKPOINT_MAX_AGE = "comarquage-solr.indexing.checkpoint.maxAge";
+    private static final long DEFAULT_INTERVAL = 30L;
+    private static final long DEFAULT_MAX_AGE = 86400L;
+
+    // File format
+    private static final String HEADER = "# comarquage-solr checkpoint 1";
+    private static final String PREFIX_FILE = "F\t";
+    private static final String PREFIX_COUNTS = "C\t";
+    private static final String SEPARATOR = "\t";
+    private static final String SUFFIX = ".checkpoint";
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+    // Variables
+    private final File _file;
+    private final long _lIntervalNanos;
+    private final Set<String> _setCompletedFiles;
+    private final List<String> _listPendingFiles = new ArrayList<String>(  );
+    private long _lPreviousFiles;
+    private long _lPreviousItems;
+    private long _lPreviousErrors;
+    private long _lLastSaveNanos = System.nanoTime(  );
+    private int _nSkipped;
+
+    /**
+     * Creates a checkpoint
+     *
+     * @param file the journal file
+     * @param lIntervalNanos the minimum delay between two saves, in nanoseconds
+     * @param setCompletedFiles the files completed by the previous runs
+     */
+    private IndexingCheckpoint( File file, long lIntervalNanos, Set<String> setCompletedFiles )
+    {
+        _file = file;
+        _lIntervalNanos = lIntervalNanos;
+        _setCompletedFiles = setCompletedFiles;
+    }
+
+    /**
+     * Checks whether the checkpoints are enabled
+     *
+     * @return true if the checkpoints are enabled
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_CHECKPOINT_ENABLE, false );
+    }
+
+    /**
+     * Loads the checkpoint of an indexer, left by an interrupted run
+     *
+     * @param strName the name of the indexer
+     * @return the checkpoint, or null if the checkpoints are disabled
+     */
+    public static IndexingCheckpoint load( String strName )
+    {
+        if ( !isEnabled(  ) )
+        {
+            return null;
+        }
+
+        File file = new File( AppPathService.getPath( PROPERTY_CHECKPOINT_DIRECTORY ), strName + SUFFIX );
+        long lInterval = AppPropertiesService.getPropertyLong( PROPERTY_CHECKPOINT_INTERVAL, DEFAULT_INTERVAL );
+        long lMaxAge = AppPropertiesService.getPropertyLong( PROPERTY_CHECKPOINT_MAX_AGE, DEFAULT_MAX_AGE );
+
+        return load( file, lInterval, lMaxAge );
+    }
+
+    /**
+     * Loads a checkpoint from its journal file
+     *
+     * @param file the journal file
+     * @param lInterval the minimum delay between two saves, in seconds
+     * @param lMaxAge the maximum age of the journal, in seconds
+     * @return the checkpoint, without completed file if the journal is missing, too old or corrupted
+     */
+    static IndexingCheckpoint load( File file, long lInterval, long lMaxAge )
+    {
+        IndexingCheckpoint checkpoint = new IndexingCheckpoint( file, TimeUnit.SECONDS.toNanos( lInterval ),
+                new HashSet<String>(  ) );
+
+        if ( file.isFile(  ) )
+        {
+            if ( ( System.currentTimeMillis(  ) - file.lastModified(  ) ) > TimeUnit.SECONDS.toMillis( lMaxAge ) )
+            {
+                AppLogService.info( "Checkpoint " + file + " too old, the run starts from zero" );
+                checkpoint.delete(  );
+            }
+            else
+            {
+                try
+                {
+                    checkpoint.read(  );
+                }
+                catch ( IOException e )
+                {
+                    AppLogService.error( "Invalid checkpoint " + file + ", the run starts from zero", e );
+                    checkpoint._setCompletedFiles.clear(  );
+                    checkpoint.delete(  );
+                }
+            }
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Checks whether a file has been completed by an interrupted run, and must be skipped
+     *
+     * @param file the file
+     * @return true if the file must be skipped
+     */
+    public synchronized boolean isCompleted( File file )
+    {
+        if ( _setCompletedFiles.contains( file.getAbsolutePath(  ) ) )
+        {
+            _nSkipped++;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the run resumes an interrupted run : the files completed by the interrupted
+     * run have no item in this run
+     *
+     * @return true if the run has been resumed
+     */
+    public synchronized boolean isResumed(  )
+    {
+        return !_setCompletedFiles.isEmpty(  );
+    }
+
+    /**
+     * Records a file whose items have all been handed to the writer. It is saved by the next
+     * {@link #save(IndexingMetrics)}, which must follow the flush of the writer
+     *
+     * @param file the file
+     */
+    public synchronized void complete( File file )
+    {
+        _listPendingFiles.add( file.getAbsolutePath(  ) );
+    }
+
+    /**
+     * Checks whether the checkpoint interval has elapsed since the previous save
+     *
+     * @return true if the checkpoint must be saved
+     */
+    public synchronized boolean isDue(  )
+    {
+        return ( System.nanoTime(  ) - _lLastSaveNanos ) >= _lIntervalNanos;
+    }
+
+    /**
+     * Appends the completed files and the counts of the run to the journal. The items of the
+     * completed files must have been sent to the index
+     *
+     * @param metrics the metrics of the run
+     */
+    public synchronized void save( IndexingMetrics metrics )
+    {
+        _lLastSaveNanos = System.nanoTime(  );
+
+        try
+        {
+            boolean bNew = !_file.isFile(  );
+
+            if ( bNew )
+            {
+                _file.getParentFile(  ).mkdirs(  );
+            }
+
+            Writer writer = new OutputStreamWriter( new FileOutputStream( _file, true ), CHARSET );
+
+            try
+            {
+                if ( bNew )
+                {
+                    writer.write( HEADER + "\n" );
+                }
+
+                for ( String strPath : _listPendingFiles )
+                {
+                    writer.write( PREFIX_FILE + strPath + "\n" );
+                }
+
+                writer.write( PREFIX_COUNTS + ( _lPreviousFiles + metrics.getFilesScanned(  ) ) + SEPARATOR +
+                    ( _lPreviousItems + metrics.getItemsSent(  ) ) + SEPARATOR +
+                    ( _lPreviousErrors + metrics.getErrors(  ) ) + "\n" );
+            }
+            finally
+            {
+                writer.close(  );
+            }
+
+            _listPendingFiles.clear(  );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to save the checkpoint " + _file, e );
+        }
+    }
+
+    /**
+     * Ends the run, once the writer has sent all the items : the journal is deleted if the run is
+     * complete, and saved with the last completed files if the run has been interrupted
+     *
+     * @param metrics the metrics of the run
+     */
+    public synchronized void endRun( IndexingMetrics metrics )
+    {
+        if ( !_setCompletedFiles.isEmpty(  ) )
+        {
+            AppLogService.info( "Run resumed from the checkpoint " + _file + " : " + _nSkipped +
+                " completed files skipped, " + _lPreviousFiles + " files scanned, " + _lPreviousItems +
+                " items sent and " + _lPreviousErrors + " errors before the interruption" );
+        }
+
+        if ( Thread.currentThread(  ).isInterrupted(  ) )
+        {
+            save( metrics );
+        }
+        else
+        {
+            delete(  );
+        }
+    }
+
+    /**
+     * Deletes the journal
+     */
+    private void delete(  )
+    {
+        _listPendingFiles.clear(  );
+
+        if ( _file.exists(  ) && !_file.delete(  ) )
+        {
+            AppLogService.error( "Unable to delete the checkpoint " + _file );
+        }
+    }
+
+    /**
+     * Reads the journal of the interrupted runs
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    private void read(  ) throws IOException
+    {
+        BufferedReader reader = Files.newBufferedReader( _file.toPath(  ), CHARSET );
+
+        try
+        {
+            if ( !HEADER.equals( reader.readLine(  ) ) )
+            {
+                throw new IOException( "Unknown checkpoint format" );
+            }
+
+            // The files of a save are only taken once its counts are read : a save truncated by the
+            // interruption is ignored
+            List<String> listFiles = new ArrayList<String>(  );
+            String strLine;
+
+            while ( ( strLine = reader.readLine(  ) ) != null )
+            {
+                if ( strLine.startsWith( PREFIX_FILE ) )
+                {
+                    listFiles.add( strLine.substring( PREFIX_FILE.length(  ) ) );
+                }
+                else if ( strLine.startsWith( PREFIX_COUNTS ) )
+                {
+                    String[] counts = strLine.substring( PREFIX_COUNTS.length(  ) ).split( SEPARATOR );
+
+                    // The last counts of the journal are the counts of the interrupted run
+                    try
+                    {
+                        _lPreviousFiles = Long.parseLong( counts[0] );
+                        _lPreviousItems = Long.parseLong( counts[1] );
+                        _lPreviousErrors = Long.parseLong( counts[2] );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        break;
+                    }
+
+                    _setCompletedFiles.addAll( listFiles );
+                    listFiles.clear(  );
+                }
+            }
+        }
+        finally
+        {
+            reader.close(  );
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Metrics of a comarquage indexer run : counters and per-phase timers, updated by the parsers and
+ * the batch writer, and exported as an MBean of the platform MBean server. The MBeans are
+ * unregistered when the webapp shuts down, and an MBean left by a previous deployment is replaced.
+ * This class is thread safe.
+ */
+public final class IndexingMetrics implements IndexingMetricsMBean
+{
+    // JMX
+    private static final String OBJECT_NAME = "fr.paris.lutece.plugins.comarquage.modules.solr:type=IndexingMetrics,name=";
+    private static final String SHUTDOWN_SERVICE_NAME = "comarquage-solr indexing metrics";
+
+    // Registered metrics
+    private static final Map<String, IndexingMetrics> _mapInstances = new ConcurrentHashMap<String, IndexingMetrics>(  );
+
+    // Variables
+    private final String _strName;
+    private final LongAdder _lFilesScanned = new LongAdder(  );
+    private final LongAdder _lBytesRead = new LongAdder(  );
+    private final LongAdder _lCardsParsed = new LongAdder(  );
+    private final LongAdder _lCardsTruncated = new LongAdder(  );
+    private final LongAdder _lCacheHits = new LongAdder(  );
+    private final LongAdder _lItemsSent = new LongAdder(  );
+    private final LongAdder _lItemsDeduplicated = new LongAdder(  );
+    private final LongAdder _lItemsThrottled = new LongAdder(  );
+    private final LongAdder _lItemsRetried = new LongAdder(  );
+    private final LongAdder _lItemsDeleted = new LongAdder(  );
+    private final LongAdder _lErrors = new LongAdder(  );
+    private final LongAdder _lWalkNanos = new LongAdder(  );
+    private final LongAdder _lParseNanos = new LongAdder(  );
+    private final LongAdder _lBuildNanos = new LongAdder(  );
+    private final LongAdder _lWriteNanos = new LongAdder(  );
+    private final LongAdder _lThrottleNanos = new LongAdder(  );
+    private volatile long _lRunStart;
+    private volatile long _lRunStartNanos;
+    private volatile long _lRunEndNanos;
+    private volatile boolean _bRunning;
+
+    /**
+     * Creates metrics which are not exported, used when the caller does not collect any metrics
+     */
+    public IndexingMetrics(  )
+    {
+        this( null );
+    }
+
+    /**
+     * Creates metrics
+     *
+     * @param strName the name of the indexer
+     */
+    private IndexingMetrics( String strName )
+    {
+        _strName = strName;
+    }
+
+    /**
+     * Gets the metrics of an indexer, registered as an MBean on first use
+     *
+     * @param strName the name of the indexer
+     * @return the metrics
+     */
+    public static IndexingMetrics getInstance( String strName )
+    {
+        IndexingMetrics metrics = _mapInstances.get( strName );
+
+        if ( metrics == null )
+        {
+            synchronized ( _mapInstances )
+            {
+                metrics = _mapInstances.get( strName );
+
+                if ( metrics == null )
+                {
+                    if ( _mapInstances.isEmpty(  ) )
+                    {
+                        ShutdownServiceManager.registerShutdownService( new ShutdownService(  )
+                            {
+                                public String getName(  )
+                                {
+                                    return SHUTDOWN_SERVICE_NAME;
+                                }
+
+                                public void process(  )
+                                {
+                                    unregisterAll(  );
+                                }
+                            } );
+                    }
+
+                    metrics = new IndexingMetrics( strName );
+                    register( metrics );
+                    _mapInstances.put( strName, metrics );
+                }
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Registers metrics on the platform MBean server, replacing the MBean of a previous deployment.
+     * A failure is logged and the metrics are still collected
+     *
+     * @param metrics the metrics
+     */
+    private static void register( IndexingMetrics metrics )
+    {
+        try
+        {
+            ObjectName name = getObjectName( metrics._strName );
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+
+            server.registerMBean( metrics, name );
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( "Unable to register the indexing metrics " + metrics._strName, e );
+        }
+    }
+
+    /**
+     * Unregisters all the metrics from the platform MBean server
+     */
+    public static void unregisterAll(  )
+    {
+        synchronized ( _mapInstances )
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+
+            for ( String strName : _mapInstances.keySet(  ) )
+            {
+                try
+                {
+                    ObjectName name = getObjectName( strName );
+
+                    if ( server.isRegistered( name ) )
+                    {
+                        server.unregisterMBean( name );
+                    }
+                }
+                catch ( JMException e )
+                {
+                    AppLogService.error( "Unable to unregister the indexing metrics " + strName, e );
+                }
+            }
+
+            _mapInstances.clear(  );
+        }
+    }
+
+    /**
+     * Gets the JMX name of the metrics of an indexer
+     *
+     * @param strName the name of the indexer
+     * @return the JMX name
+     * @throws JMException if the name is not valid
+     */
+    private static ObjectName getObjectName( String strName )
+        throws JMException
+    {
+        return new ObjectName( OBJECT_NAME + ObjectName.quote( strName ) );
+    }
+
+    /**
+     * Resets the metrics at the start of a run
+     */
+    public void startRun(  )
+    {
+        _lFilesScanned.reset(  );
+        _lBytesRead.reset(  );
+        _lCardsParsed.reset(  );
+        _lCardsTruncated.reset(  );
+        _lCacheHits.reset(  );
+        _lItemsSent.reset(  );
+        _lItemsDeduplicated.reset(  );
+        _lItemsThrottled.reset(  );
+        _lItemsRetried.reset(  );
+        _lItemsDeleted.reset(  );
+        _lErrors.reset(  );
+        _lWalkNanos.reset(  );
+        _lParseNanos.reset(  );
+        _lBuildNanos.reset(  );
+        _lWriteNanos.reset(  );
+        _lThrottleNanos.reset(  );
+        _lRunStart = System.currentTimeMillis(  );
+        _lRunStartNanos = System.nanoTime(  );
+        _bRunning = true;
+    }
+
+    /**
+     * Records the end of a run
+     */
+    public void endRun(  )
+    {
+        _lRunEndNanos = System.nanoTime(  );
+        _bRunning = false;
+    }
+
+    /**
+     * Counts a card file found
+     */
+    public void addFileScanned(  )
+    {
+        _lFilesScanned.increment(  );
+    }
+
+    /**
+     * Counts the bytes of a parsed file
+     *
+     * @param lBytes the size of the file
+     */
+    public void addBytesRead( long lBytes )
+    {
+        _lBytesRead.add( lBytes );
+    }
+
+    /**
+     * Counts a parsed card
+     */
+    public void addCardParsed(  )
+    {
+        _lCardsParsed.increment(  );
+    }
+
+    /**
+     * Counts a parsed card whose extracted text has been truncated to a maximum length
+     */
+    public void addCardTruncated(  )
+    {
+        _lCardsTruncated.increment(  );
+    }
+
+    /**
+     * Counts a file whose items have been replayed from the cache
+     */
+    public void addCacheHit(  )
+    {
+        _lCacheHits.increment(  );
+    }
+
+    /**
+     * Counts items sent to the index
+     *
+     * @param nItems the number of items
+     */
+    public void addItemsSent( int nItems )
+    {
+        _lItemsSent.add( nItems );
+    }
+
+    /**
+     * Counts an item dropped as a duplicate of an item already sent by the run
+     */
+    public void addItemDeduplicated(  )
+    {
+        _lItemsDeduplicated.increment(  );
+    }
+
+    /**
+     * Counts items whose write has been delayed by the write policy
+     *
+     * @param nItems the number of items
+     * @param lNanos the delay, in nanoseconds
+     */
+    public void addItemsThrottled( int nItems, long lNanos )
+    {
+        _lItemsThrottled.add( nItems );
+        _lThrottleNanos.add( lNanos );
+    }
+
+    /**
+     * Counts items whose write is retried after a transient failure
+     *
+     * @param nItems the number of items
+     */
+    public void addItemsRetried( int nItems )
+    {
+        _lItemsRetried.add( nItems );
+    }
+
+    /**
+     * Counts items deleted from the index
+     *
+     * @param nItems the number of items
+     */
+    public void addItemsDeleted( int nItems )
+    {
+        _lItemsDeleted.add( nItems );
+    }
+
+    /**
+     * Counts an error
+     */
+    public void addError(  )
+    {
+        _lErrors.increment(  );
+    }
+
+    /**
+     * Adds time to the directory walk phase
+     *
+     * @param lNanos the time, in nanoseconds
+     */
+    public void addWalkTime( long lNanos )
+    {
+        _lWalkNanos.add( lNanos );
+    }
+
+    /**
+     * Adds time to the parse phase
+     *
+     * @param lNanos the time, in nanoseconds
+     */
+    public void addParseTime( long lNanos )
+    {
+        _lParseNanos.add( lNanos );
+    }
+
+    /**
+     * Adds time to the item build phase
+     *
+     * @param lNanos the time, in nanoseconds
+     */
+    public void addBuildTime( long lNanos )
+    {
+        _lBuildNanos.add( lNanos );
+    }
+
+    /**
+     * Adds time to the write phase
+     *
+     * @param lNanos the time, in nanoseconds
+     */
+    public void addWriteTime( long lNanos )
+    {
+        _lWriteNanos.add( lNanos );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRunning(  )
+    {
+        return _bRunning;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRunStart(  )
+    {
+        return _lRunStart;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRunDuration(  )
+    {
+        long lEnd = _bRunning ? System.nanoTime(  ) : _lRunEndNanos;
+
+        return TimeUnit.NANOSECONDS.toMillis( lEnd - _lRunStartNanos );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFilesScanned(  )
+    {
+        return _lFilesScanned.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBytesRead(  )
+    {
+        return _lBytesRead.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCardsParsed(  )
+    {
+        return _lCardsParsed.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCardsTruncated(  )
+    {
+        return _lCardsTruncated.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheHits(  )
+    {
+        return _lCacheHits.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsSent(  )
+    {
+        return _lItemsSent.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsDeduplicated(  )
+    {
+        return _lItemsDeduplicated.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsThrottled(  )
+    {
+        return _lItemsThrottled.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsRetried(  )
+    {
+        return _lItemsRetried.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsDeleted(  )
+    {
+        return _lItemsDeleted.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getErrors(  )
+    {
+        return _lErrors.sum(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getItemsPerSecond(  )
+    {
+        long lDuration = getRunDuration(  );
+
+        return ( lDuration > 0 ) ? ( ( getItemsSent(  ) * 1000d ) / lDuration ) : 0d;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWalkTime(  )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lWalkNanos.sum(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getParseTime(  )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lParseNanos.sum(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBuildTime(  )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lBuildNanos.sum(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteTime(  )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lWriteNanos.sum(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getThrottleTime(  )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lThrottleNanos.sum(  ) );
+    }
+
+    /**
+     * Gets a summary of the metrics, for the logs
+     *
+     * @return the summary
+     */
+    public String getSummary(  )
+    {
+        return String.format( 
+            "%d files scanned, %d bytes read, %d cards parsed, %d truncated, %d files from cache, %d items sent, " +
+            "%d deduplicated, %d throttled, %d retried, %d deleted, %d errors in %d ms (%.1f items/s) ; walk %d ms, " +
+            "parse %d ms, build %d ms, write %d ms, throttle %d ms", getFilesScanned(  ), getBytesRead(  ),
+            getCardsParsed(  ), getCardsTruncated(  ), getCacheHits(  ), getItemsSent(  ), getItemsDeduplicated(  ),
+            getItemsThrottled(  ), getItemsRetried(  ), getItemsDeleted(  ), getErrors(  ), getRunDuration(  ),
+            getItemsPerSecond(  ), getWalkTime(  ), getParseTime(  ), getBuildTime(  ), getWriteTime(  ),
+            getThrottleTime(  ) );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+
+/**
+ * JMX view of the metrics of a comarquage indexer. The counters and timers cover the current run,
+ * or the last one when no run is in progress. The phase timers add the time spent by all the
+ * parser threads, so their sum may exceed the duration of a parallel run.
+ */
+public interface IndexingMetricsMBean
+{
+    /**
+     * Tells whether a run is in progress
+     *
+     * @return true if a run is in progress
+     */
+    boolean isRunning(  );
+
+    /**
+     * Gets the start date of the run
+     *
+     * @return the start date, in milliseconds since the epoch, or 0 before the first run
+     */
+    long getRunStart(  );
+
+    /**
+     * Gets the duration of the run, so far if it is in progress
+     *
+     * @return the duration, in milliseconds
+     */
+    long getRunDuration(  );
+
+    /**
+     * Gets the number of card files found
+     *
+     * @return the number of files
+     */
+    long getFilesScanned(  );
+
+    /**
+     * Gets the number of bytes of the parsed files
+     *
+     * @return the number of bytes
+     */
+    long getBytesRead(  );
+
+    /**
+     * Gets the number of parsed cards
+     *
+     * @return the number of cards
+     */
+    long getCardsParsed(  );
+
+    /**
+     * Gets the number of parsed cards whose contents, title or date have been truncated to their maximum length
+     *
+     * @return the number of cards
+     */
+    long getCardsTruncated(  );
+
+    /**
+     * Gets the number of files whose items have been replayed from the parsed cards cache
+     *
+     * @return the number of files
+     */
+    long getCacheHits(  );
+
+    /**
+     * Gets the number of items sent to the index
+     *
+     * @return the number of items
+     */
+    long getItemsSent(  );
+
+    /**
+     * Gets the number of items dropped as duplicates of items already sent : the writes saved by the deduplication
+     *
+     * @return the number of items
+     */
+    long getItemsDeduplicated(  );
+
+    /**
+     * Gets the number of items whose write has been delayed by the write policy
+     *
+     * @return the number of items
+     */
+    long getItemsThrottled(  );
+
+    /**
+     * Gets the number of items whose write has been retried after a transient failure, once per retry
+     *
+     * @return the number of items
+     */
+    long getItemsRetried(  );
+
+    /**
+     * Gets the number of items deleted from the index : removed cards and orphan items
+     *
+     * @return the number of items
+     */
+    long getItemsDeleted(  );
+
+    /**
+     * Gets the number of errors : files which cannot be parsed and items rejected by the index
+     *
+     * @return the number of errors
+     */
+    long getErrors(  );
+
+    /**
+     * Gets the throughput of the run
+     *
+     * @return the number of items sent per second
+     */
+    double getItemsPerSecond(  );
+
+    /**
+     * Gets the time spent listing the directories of the cards
+     *
+     * @return the time, in milliseconds
+     */
+    long getWalkTime(  );
+
+    /**
+     * Gets the time spent parsing the XML files, without building and writing the items
+     *
+     * @return the time, in milliseconds
+     */
+    long getParseTime(  );
+
+    /**
+     * Gets the time spent building the items from the parsed texts
+     *
+     * @return the time, in milliseconds
+     */
+    long getBuildTime(  );
+
+    /**
+     * Gets the time spent sending the items to the index
+     *
+     * @return the time, in milliseconds
+     */
+    long getWriteTime(  );
+
+    /**
+     * Gets the time spent waiting for the write policy, not included in the write time
+     *
+     * @return the time, in milliseconds
+     */
+    long getThrottleTime(  );
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Manifest of the local cards indexed by the previous run : path, size, last modification
+ * date and content hash of each card. It is persisted on the local disk so that the next run
+ * only parses the new or modified cards. A missing or corrupted manifest is ignored, and
+ * all the cards are then parsed.
+ * This class is thread safe.
+ */
+public final class LocalCardsManifest
+{
+    // Properties
+    private static final String PROPERTY_MANIFEST_ENABLE = "comarquage-solr.indexing.localManifest.enable";
+    private static final String PROPERTY_MANIFEST_FILE = "comarquage-solr.indexing.localManifest.file";
+
+    // File format
+    private static final String HEADER = "# comarquage-solr local cards manifest 1";
+    private static final String FOOTER = "# end ";
+    private static final String SEPARATOR = "\t";
+    private static final String SUFFIX_TEMP = ".tmp";
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(  );
+
+    // Variables
+    private final File _file;
+    private final Map<String, Entry> _mapPreviousEntries;
+    private final Map<String, Entry> _mapEntries = new ConcurrentHashMap<String, Entry>(  );
+    private final AtomicInteger _nSkipped = new AtomicInteger(  );
+
+    /**
+     * Creates a manifest
+     *
+     * @param file the manifest file
+     * @param mapPreviousEntries the entries of the previous run
+     */
+    private LocalCardsManifest( File file, Map<String, Entry> mapPreviousEntries )
+    {
+        _file = file;
+        _mapPreviousEntries = mapPreviousEntries;
+    }
+
+    /**
+     * Loads the manifest of the previous run
+     *
+     * @return the manifest, or null if the manifest is disabled
+     */
+    public static LocalCardsManifest load(  )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_MANIFEST_ENABLE, false ) )
+        {
+            return null;
+        }
+
+        return load( new File( AppPathService.getPath( PROPERTY_MANIFEST_FILE ) ) );
+    }
+
+    /**
+     * Loads the manifest of the previous run from a file
+     *
+     * @param file the manifest file
+     * @return the manifest, without entry if the file is missing or corrupted
+     */
+    static LocalCardsManifest load( File file )
+    {
+        Map<String, Entry> mapEntries = new ConcurrentHashMap<String, Entry>(  );
+
+        if ( file.isFile(  ) )
+        {
+            try
+            {
+                read( file, mapEntries );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Invalid local cards manifest " + file + ", all the local cards will be parsed",
+                    e );
+                mapEntries.clear(  );
+            }
+        }
+
+        return new LocalCardsManifest( file, mapEntries );
+    }
+
+    /**
+     * Checks whether a card has changed since the previous run
+     *
+     * @param fileCard the card file
+     * @return the entry of the card to record once it has been parsed, or null if the card is
+     *         unchanged and must be skipped
+     * @throws IOException if the card cannot be read
+     */
+    public Entry check( File fileCard ) throws IOException
+    {
+        String strPath = fileCard.getAbsolutePath(  );
+        long lSize = fileCard.length(  );
+        long lLastModified = fileCard.lastModified(  );
+        Entry previous = _mapPreviousEntries.get( strPath );
+
+        // Same size and date : the content is not read
+        if ( ( previous != null ) && ( previous._lSize == lSize ) && ( previous._lLastModified == lLastModified ) )
+        {
+            skip( previous );
+
+            return null;
+        }
+
+        Entry entry = new Entry( strPath, lSize, lLastModified, hash( fileCard, null ) );
+
+        // Touched but not modified
+        if ( ( previous != null ) && ( previous._lSize == lSize ) && previous._strHash.equals( entry._strHash ) )
+        {
+            skip( entry );
+
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Records a card that has been parsed
+     *
+     * @param entry the entry returned by {@link #check(File)}
+     */
+    public void record( Entry entry )
+    {
+        _mapEntries.put( entry._strPath, entry );
+    }
+
+    /**
+     * Gets the number of unchanged cards skipped during this run
+     *
+     * @return the number of skipped cards
+     */
+    public int getSkippedCount(  )
+    {
+        return _nSkipped.get(  );
+    }
+
+    /**
+     * Saves the manifest of this run. The cards that have been removed since the previous run
+     * are no longer listed
+     */
+    public void save(  )
+    {
+        File fileTemp = new File( _file.getPath(  ) + SUFFIX_TEMP );
+
+        try
+        {
+            File fileParent = _file.getAbsoluteFile(  ).getParentFile(  );
+
+            if ( fileParent != null )
+            {
+                fileParent.mkdirs(  );
+            }
+
+            BufferedWriter writer = Files.newBufferedWriter( fileTemp.toPath(  ), CHARSET );
+
+            try
+            {
+                writer.write( HEADER );
+                writer.newLine(  );
+
+                for ( Entry entry : _mapEntries.values(  ) )
+                {
+                    writer.write( entry._lSize + SEPARATOR + entry._lLastModified + SEPARATOR + entry._strHash +
+                        SEPARATOR + entry._strPath );
+                    writer.newLine(  );
+                }
+
+                writer.write( FOOTER + _mapEntries.size(  ) );
+                writer.newLine(  );
+            }
+            finally
+            {
+                writer.close(  );
+            }
+
+            Files.move( fileTemp.toPath(  ), _file.toPath(  ), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to save the local cards manifest " + _file, e );
+        }
+    }
+
+    /**
+     * Skips an unchanged card
+     *
+     * @param entry the entry of the card
+     */
+    private void skip( Entry entry )
+    {
+        _mapEntries.put( entry._strPath, entry );
+        _nSkipped.incrementAndGet(  );
+    }
+
+    /**
+     * Reads a manifest file
+     *
+     * @param file the manifest file
+     * @param mapEntries the map filled with the entries
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    private static void read( File file, Map<String, Entry> mapEntries )
+        throws IOException
+    {
+        BufferedReader reader = Files.newBufferedReader( file.toPath(  ), CHARSET );
+
+        try
+        {
+            if ( !HEADER.equals( reader.readLine(  ) ) )
+            {
+                throw new IOException( "Unknown manifest header" );
+            }
+
+            String strLine;
+
+            while ( ( strLine = reader.readLine(  ) ) != null )
+            {
+                if ( strLine.startsWith( FOOTER ) )
+                {
+                    if ( Integer.parseInt( strLine.substring( FOOTER.length(  ) ) ) != mapEntries.size(  ) )
+                    {
+                        throw new IOException( "Truncated manifest" );
+                    }
+
+                    return;
+                }
+
+                String[] fields = strLine.split( SEPARATOR, 4 );
+
+                if ( fields.length != 4 )
+                {
+                    throw new IOException( "Invalid manifest line : " + strLine );
+                }
+
+                Entry entry = new Entry( fields[3], Long.parseLong( fields[0] ), Long.parseLong( fields[1] ), fields[2] );
+                mapEntries.put( entry._strPath, entry );
+            }
+
+            throw new IOException( "Truncated manifest" );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Invalid manifest number", e );
+        }
+        finally
+        {
+            reader.close(  );
+        }
+    }
+
+    /**
+     * Computes the content hash of a card
+     *
+     * @param fileCard the card file
+     * @param strPrefix a text hashed before the content, or null
+     * @return the hexadecimal hash
+     * @throws IOException if the card cannot be read
+     */
+    static String hash( File fileCard, String strPrefix )
+        throws IOException
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance( ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( e );
+        }
+
+        if ( strPrefix != null )
+        {
+            digest.update( strPrefix.getBytes( CHARSET ) );
+        }
+
+        InputStream in = new FileInputStream( fileCard );
+
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int nRead;
+
+            while ( ( nRead = in.read( buffer ) ) != -1 )
+            {
+                digest.update( buffer, 0, nRead );
+            }
+        }
+        finally
+        {
+            in.close(  );
+        }
+
+        byte[] hash = digest.digest(  );
+        char[] hex = new char[hash.length * 2];
+
+        for ( int i = 0; i < hash.length; i++ )
+        {
+            hex[2 * i] = HEX_DIGITS[( hash[i] >> 4 ) & 0x0F];
+            hex[( 2 * i ) + 1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+
+        return new String( hex );
+    }
+
+    /**
+     * Manifest entry of a card
+     */
+    public static final class Entry
+    {
+        private final String _strPath;
+        private final long _lSize;
+        private final long _lLastModified;
+        private final String _strHash;
+
+        /**
+         * Creates an entry
+         *
+         * @param strPath the absolute path of the card
+         * @param lSize the size of the card
+         * @param lLastModified the last modification date of the card
+         * @param strHash the content hash of the card
+         */
+        Entry( String strPath, long lSize, long lLastModified, String strHash )
+        {
+            _strPath = strPath;
+            _lSize = lSize;
+            _lLastModified = lLastModified;
+            _strHash = strHash;
+        }
+    }
+}
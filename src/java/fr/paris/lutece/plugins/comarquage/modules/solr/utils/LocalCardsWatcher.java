@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.CorpusPathFilter;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Watches the changes of the local cards tree. Each directory of the tree is registered to a
+ * {@link WatchService}, and the new directories are registered as soon as their creation is seen.
+ * The changed files are only reported once no new event has been received for them during the
+ * debounce delay, so that a burst of changes to a card (an editor saving in several writes, a copy
+ * of a whole directory) is handled once.
+ * The files of each watched directory are tracked, as the removal or the move of a directory is
+ * only reported for the directory : all its files are then reported as changed.
+ * The watcher is not thread safe : it is polled by a single daemon.
+ */
+public class LocalCardsWatcher
+{
+    // Variables
+    private final CorpusPathFilter _filter;
+    private final long _lDebounceNanos;
+    private final WatchService _watchService;
+    private final Map<WatchKey, Path> _mapDirectories = new HashMap<WatchKey, Path>(  );
+    private final Map<Path, Set<Path>> _mapDirectoryFiles = new HashMap<Path, Set<Path>>(  );
+    private final Map<Path, Long> _mapPendingFiles = new LinkedHashMap<Path, Long>(  );
+
+    /**
+     * Creates a watcher and registers all the directories of the tree
+     *
+     * @param pathRoot the root of the local cards tree
+     * @param filter the filter of the files and directories of the tree
+     * @param lDebounceMillis the delay without event after which a changed file is reported, in milliseconds
+     * @throws IOException if the tree cannot be watched
+     */
+    public LocalCardsWatcher( Path pathRoot, CorpusPathFilter filter, long lDebounceMillis )
+        throws IOException
+    {
+        _filter = filter;
+        _lDebounceNanos = lDebounceMillis * 1000000L;
+        _watchService = FileSystems.getDefault(  ).newWatchService(  );
+
+        try
+        {
+            register( pathRoot, false );
+        }
+        catch ( IOException e )
+        {
+            _watchService.close(  );
+
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of watched directories
+     *
+     * @return the number of directories
+     */
+    public int getDirectoryCount(  )
+    {
+        return _mapDirectories.size(  );
+    }
+
+    /**
+     * Reads the pending events, without waiting
+     */
+    public void poll(  )
+    {
+        long lNow = System.nanoTime(  );
+        WatchKey key;
+
+        try
+        {
+            while ( ( key = _watchService.poll(  ) ) != null )
+            {
+                Path pathDirectory = _mapDirectories.get( key );
+
+                if ( pathDirectory != null )
+                {
+                    for ( WatchEvent<?> event : key.pollEvents(  ) )
+                    {
+                        handleEvent( pathDirectory, event, lNow );
+                    }
+                }
+
+                // The key of a removed directory is no longer valid
+                if ( !key.reset(  ) )
+                {
+                    _mapDirectories.remove( key );
+                }
+            }
+        }
+        catch ( ClosedWatchServiceException e )
+        {
+            AppLogService.error( "The watch service of the local cards is closed" );
+        }
+    }
+
+    /**
+     * Takes the changed files whose last event is older than the debounce delay. A returned file may
+     * have been created, modified or removed : the caller checks whether it still exists
+     *
+     * @return the files, in the order of their first event
+     */
+    public List<Path> takeSettledFiles(  )
+    {
+        long lNow = System.nanoTime(  );
+        List<Path> listFiles = new ArrayList<Path>(  );
+        Iterator<Map.Entry<Path, Long>> iterator = _mapPendingFiles.entrySet(  ).iterator(  );
+
+        while ( iterator.hasNext(  ) )
+        {
+            Map.Entry<Path, Long> entry = iterator.next(  );
+
+            if ( ( lNow - entry.getValue(  ) ) >= _lDebounceNanos )
+            {
+                listFiles.add( entry.getKey(  ) );
+                iterator.remove(  );
+            }
+        }
+
+        return listFiles;
+    }
+
+    /**
+     * Gets the number of changed files waiting for the end of the debounce delay
+     *
+     * @return the number of files
+     */
+    public int getPendingCount(  )
+    {
+        return _mapPendingFiles.size(  );
+    }
+
+    /**
+     * Stops watching the tree
+     */
+    public void close(  )
+    {
+        try
+        {
+            _watchService.close(  );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to close the watch service of the local cards", e );
+        }
+
+        _mapDirectories.clear(  );
+        _mapDirectoryFiles.clear(  );
+        _mapPendingFiles.clear(  );
+    }
+
+    /**
+     * Handles an event of a watched directory
+     *
+     * @param pathDirectory the directory
+     * @param event the event
+     * @param lNow the time of the poll, in nanoseconds
+     */
+    private void handleEvent( Path pathDirectory, WatchEvent<?> event, long lNow )
+    {
+        if ( event.kind(  ) == StandardWatchEventKinds.OVERFLOW )
+        {
+            // Some events are lost : all the files of the directory are checked again
+            AppLogService.error( "Local cards events lost, checking all the files of " + pathDirectory );
+            rescan( pathDirectory, lNow );
+
+            return;
+        }
+
+        Path path = pathDirectory.resolve( (Path) event.context(  ) );
+
+        if ( ( event.kind(  ) == StandardWatchEventKinds.ENTRY_DELETE ) && _mapDirectoryFiles.containsKey( path ) )
+        {
+            // A removed or moved directory : its files are gone as well
+            removeDirectory( path, lNow );
+        }
+        else if ( ( event.kind(  ) == StandardWatchEventKinds.ENTRY_CREATE ) && Files.isDirectory( path ) )
+        {
+            if ( _filter.acceptDirectory( path ) )
+            {
+                try
+                {
+                    // The files created before the registration have no event of their own
+                    register( path, true );
+                }
+                catch ( IOException e )
+                {
+                    AppLogService.error( "Unable to watch the local cards of " + path + " : " + e.getMessage(  ), e );
+                }
+            }
+        }
+        else if ( _filter.acceptFile( path ) )
+        {
+            Set<Path> setFiles = _mapDirectoryFiles.get( pathDirectory );
+
+            if ( setFiles != null )
+            {
+                if ( event.kind(  ) == StandardWatchEventKinds.ENTRY_DELETE )
+                {
+                    setFiles.remove( path );
+                }
+                else
+                {
+                    setFiles.add( path );
+                }
+            }
+
+            addPendingFile( path, lNow );
+        }
+    }
+
+    /**
+     * Stops watching a removed directory and its subdirectories, and marks all their files as changed
+     *
+     * @param pathDirectory the directory
+     * @param lNow the time of the poll, in nanoseconds
+     */
+    private void removeDirectory( Path pathDirectory, long lNow )
+    {
+        Iterator<Map.Entry<Path, Set<Path>>> iteratorFiles = _mapDirectoryFiles.entrySet(  ).iterator(  );
+
+        while ( iteratorFiles.hasNext(  ) )
+        {
+            Map.Entry<Path, Set<Path>> entry = iteratorFiles.next(  );
+
+            if ( entry.getKey(  ).startsWith( pathDirectory ) )
+            {
+                for ( Path pathFile : entry.getValue(  ) )
+                {
+                    addPendingFile( pathFile, lNow );
+                }
+
+                iteratorFiles.remove(  );
+            }
+        }
+
+        // A moved directory keeps its watch key : its events must no longer be read under the old path
+        Iterator<Map.Entry<WatchKey, Path>> iteratorKeys = _mapDirectories.entrySet(  ).iterator(  );
+
+        while ( iteratorKeys.hasNext(  ) )
+        {
+            Map.Entry<WatchKey, Path> entry = iteratorKeys.next(  );
+
+            if ( entry.getValue(  ).startsWith( pathDirectory ) )
+            {
+                entry.getKey(  ).cancel(  );
+                iteratorKeys.remove(  );
+            }
+        }
+    }
+
+    /**
+     * Marks all the files of a directory as changed
+     *
+     * @param pathDirectory the directory
+     * @param lNow the time of the poll, in nanoseconds
+     */
+    private void rescan( Path pathDirectory, final long lNow )
+    {
+        final Set<Path> setFiles = _mapDirectoryFiles.get( pathDirectory );
+
+        if ( setFiles != null )
+        {
+            // The files removed meanwhile are only known from the previous events
+            for ( Path pathFile : setFiles )
+            {
+                addPendingFile( pathFile, lNow );
+            }
+        }
+
+        try
+        {
+            Files.walkFileTree( pathDirectory, EnumSet.noneOf( FileVisitOption.class ), 1,
+                new SimpleFileVisitor<Path>(  )
+                {
+                    public FileVisitResult visitFile( Path pathFile, BasicFileAttributes attributes )
+                    {
+                        if ( attributes.isRegularFile(  ) && _filter.acceptFile( pathFile ) )
+                        {
+                            if ( setFiles != null )
+                            {
+                                setFiles.add( pathFile );
+                            }
+
+                            addPendingFile( pathFile, lNow );
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+                } );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to check the local cards of " + pathDirectory + " : " + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Registers a directory and its subdirectories
+     *
+     * @param pathDirectory the directory
+     * @param bNew true if the directory has just been created, its files are then marked as changed
+     * @throws IOException if the directory cannot be watched
+     */
+    private void register( final Path pathDirectory, final boolean bNew )
+        throws IOException
+    {
+        final long lNow = System.nanoTime(  );
+
+        Files.walkFileTree( pathDirectory, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>(  )
+            {
+                public FileVisitResult preVisitDirectory( Path path, BasicFileAttributes attributes )
+                    throws IOException
+                {
+                    if ( !path.equals( pathDirectory ) && !_filter.acceptDirectory( path ) )
+                    {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    WatchKey key = path.register( _watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+                    _mapDirectories.put( key, path );
+
+                    if ( !_mapDirectoryFiles.containsKey( path ) )
+                    {
+                        _mapDirectoryFiles.put( path, new HashSet<Path>(  ) );
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFile( Path pathFile, BasicFileAttributes attributes )
+                {
+                    if ( attributes.isRegularFile(  ) && _filter.acceptFile( pathFile ) )
+                    {
+                        Set<Path> setFiles = _mapDirectoryFiles.get( pathFile.getParent(  ) );
+
+                        if ( setFiles != null )
+                        {
+                            setFiles.add( pathFile );
+                        }
+
+                        if ( bNew )
+                        {
+                            addPendingFile( pathFile, lNow );
+                        }
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed( Path pathFile, IOException e )
+                {
+                    // The loops of symbolic links are not watched twice
+                    AppLogService.error( "Unable to watch the local cards of " + pathFile + " : " + e.getMessage(  ) );
+
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+    }
+
+    /**
+     * Marks a file as changed, restarting its debounce delay
+     *
+     * @param pathFile the file
+     * @param lNow the time of the event, in nanoseconds
+     */
+    private void addPendingFile( Path pathFile, long lNow )
+    {
+        _mapPendingFiles.put( pathFile, lNow );
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Persistent cache of the Solr items extracted from the comarquage files, keyed by the content hash
+ * of each file and the configuration of its parser. A rebuild of the index replays the cached items
+ * of the unchanged files instead of parsing them again. Each entry is a GZIP compressed file of
+ * JSON lines, written while the file is parsed and published once the parsing has succeeded.
+ * The least recently used entries are evicted when the cache exceeds its maximum size.
+ * This class is thread safe.
+ */
+public final class ParsedCardsCache
+{
+    // Properties
+    private static final String PROPERTY_CACHE_ENABLE = "comarquage-solr.indexing.cache.enable";
+    private static final String PROPERTY_CACHE_DIRECTORY = "comarquage-solr.indexing.cache.directory";
+    private static final String PROPERTY_CACHE_MAX_SIZE = "comarquage-solr.indexing.cache.maxSize";
+    private static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+    // Entry format, part of the keys so that a new format ignores the previous entries
+    private static final String FORMAT = "comarquage-solr parsed cards 1\n";
+    private static final String SUFFIX_ENTRY = ".jsonl.gz";
+    private static final String SUFFIX_TEMP = ".tmp";
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final int BUFFER_SIZE = 8192;
+
+    // Variables
+    private final File _fileDirectory;
+    private final long _lMaxSize;
+
+    /**
+     * Creates a cache
+     *
+     * @param fileDirectory the cache directory
+     * @param lMaxSize the maximum size of the cache, in bytes
+     */
+    private ParsedCardsCache( File fileDirectory, long lMaxSize )
+    {
+        _fileDirectory = fileDirectory;
+        _lMaxSize = lMaxSize;
+    }
+
+    /**
+     * Opens the cache
+     *
+     * @return the cache, or null if the cache is disabled
+     */
+    public static ParsedCardsCache load(  )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_CACHE_ENABLE, false ) )
+        {
+            return null;
+        }
+
+        return new ParsedCardsCache( new File( AppPathService.getPath( PROPERTY_CACHE_DIRECTORY ) ),
+            AppPropertiesService.getPropertyLong( PROPERTY_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE ) );
+    }
+
+    /**
+     * Computes the key of a file
+     *
+     * @param file the file
+     * @param strSignature the signature of the configuration of the parser of the file
+     * @return the key
+     * @throws IOException if the file cannot be read
+     */
+    public String getKey( File file, String strSignature )
+        throws IOException
+    {
+        return LocalCardsManifest.hash( file, FORMAT + strSignature + "\n" );
+    }
+
+    /**
+     * Gets the cached items of a file. A corrupted entry is removed
+     *
+     * @param strKey the key of the file
+     * @return the items, or null if the file is not cached
+     */
+    public List<SolrItem> get( String strKey )
+    {
+        File fileEntry = getEntryFile( strKey );
+
+        if ( !fileEntry.isFile(  ) )
+        {
+            return null;
+        }
+
+        List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new GZIPInputStream( 
+                            new FileInputStream( fileEntry ), BUFFER_SIZE ), CHARSET ) );
+
+            try
+            {
+                String strLine;
+
+                while ( ( strLine = reader.readLine(  ) ) != null )
+                {
+                    listItems.add( SolrItemJson.read( strLine ) );
+                }
+            }
+            finally
+            {
+                reader.close(  );
+            }
+        }
+        catch ( IOException e )
+        {
+            return discard( fileEntry, e );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return discard( fileEntry, e );
+        }
+
+        // Least recently used entries are evicted first
+        fileEntry.setLastModified( System.currentTimeMillis(  ) );
+
+        return listItems;
+    }
+
+    /**
+     * Opens the entry of a file, receiving the items of the file while it is parsed
+     *
+     * @param strKey the key of the file
+     * @return the entry writer, or null if the entry cannot be written
+     */
+    public EntryWriter open( String strKey )
+    {
+        File fileEntry = getEntryFile( strKey );
+        File fileTemp = new File( fileEntry.getPath(  ) + "." + Thread.currentThread(  ).getId(  ) + SUFFIX_TEMP );
+
+        try
+        {
+            fileEntry.getParentFile(  ).mkdirs(  );
+
+            return new EntryWriter( fileEntry, fileTemp );
+        }
+        catch ( IOException e )
+        {
+            fileTemp.delete(  );
+            AppLogService.error( "Unable to write the parsed cards cache entry " + fileEntry, e );
+
+            return null;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its maximum size.
+     * Called at the end of a run
+     */
+    public void evict(  )
+    {
+        List<File> listEntries = new ArrayList<File>(  );
+        long lSize = listEntries( _fileDirectory, listEntries );
+
+        if ( lSize <= _lMaxSize )
+        {
+            return;
+        }
+
+        final Map<File, Long> mapLastModified = new HashMap<File, Long>(  );
+
+        for ( File fileEntry : listEntries )
+        {
+            mapLastModified.put( fileEntry, fileEntry.lastModified(  ) );
+        }
+
+        Collections.sort( listEntries,
+            new Comparator<File>(  )
+            {
+                public int compare( File file1, File file2 )
+                {
+                    return mapLastModified.get( file1 ).compareTo( mapLastModified.get( file2 ) );
+                }
+            } );
+
+        int nEvicted = 0;
+
+        for ( File fileEntry : listEntries )
+        {
+            if ( lSize <= _lMaxSize )
+            {
+                break;
+            }
+
+            long lEntrySize = fileEntry.length(  );
+
+            if ( fileEntry.delete(  ) )
+            {
+                lSize -= lEntrySize;
+                nEvicted++;
+            }
+        }
+
+        AppLogService.info( "Parsed cards cache : " + nEvicted + " entries evicted" );
+    }
+
+    /**
+     * Lists the entries of a directory of the cache
+     *
+     * @param fileDirectory the directory
+     * @param listEntries the list receiving the entries
+     * @return the total size of the entries
+     */
+    private static long listEntries( File fileDirectory, List<File> listEntries )
+    {
+        File[] files = fileDirectory.listFiles(  );
+        long lSize = 0;
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                if ( file.isDirectory(  ) )
+                {
+                    lSize += listEntries( file, listEntries );
+                }
+                else if ( file.getName(  ).endsWith( SUFFIX_ENTRY ) )
+                {
+                    listEntries.add( file );
+                    lSize += file.length(  );
+                }
+            }
+        }
+
+        return lSize;
+    }
+
+    /**
+     * Gets the file of an entry, in a sub-directory named after the first characters of the key
+     *
+     * @param strKey the key
+     * @return the entry file
+     */
+    private File getEntryFile( String strKey )
+    {
+        return new File( new File( _fileDirectory, strKey.substring( 0, 2 ) ), strKey + SUFFIX_ENTRY );
+    }
+
+    /**
+     * Removes a corrupted entry
+     *
+     * @param fileEntry the entry file
+     * @param e the read error
+     * @return null
+     */
+    private List<SolrItem> discard( File fileEntry, Exception e )
+    {
+        AppLogService.error( "Corrupted parsed cards cache entry " + fileEntry + ", the file will be parsed", e );
+        fileEntry.delete(  );
+
+        return null;
+    }
+
+    /**
+     * Writer of an entry, storing the items in a temporary file which replaces the entry when it is
+     * committed. A write error discards the entry. This class is not thread safe : an entry is
+     * written by the thread parsing its file
+     */
+    public static final class EntryWriter
+    {
+        private final File _fileEntry;
+        private final File _fileTemp;
+        private final StringBuilder _sbLine = new StringBuilder(  );
+        private Writer _writer;
+
+        /**
+         * Creates the temporary file of an entry
+         *
+         * @param fileEntry the entry file
+         * @param fileTemp the temporary file
+         * @throws IOException if the temporary file cannot be created
+         */
+        private EntryWriter( File fileEntry, File fileTemp )
+            throws IOException
+        {
+            _fileEntry = fileEntry;
+            _fileTemp = fileTemp;
+            _writer = new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( fileTemp ), BUFFER_SIZE ),
+                    CHARSET );
+        }
+
+        /**
+         * Adds an item of the file
+         *
+         * @param item the item
+         */
+        public void add( SolrItem item )
+        {
+            if ( _writer == null )
+            {
+                return;
+            }
+
+            try
+            {
+                _sbLine.setLength( 0 );
+                SolrItemJson.write( item, _sbLine );
+                _writer.append( _sbLine ).append( '\n' );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to write the parsed cards cache entry " + _fileEntry, e );
+                abort(  );
+            }
+        }
+
+        /**
+         * Publishes the entry, once all the items of the file have been added
+         */
+        public void commit(  )
+        {
+            if ( _writer == null )
+            {
+                return;
+            }
+
+            try
+            {
+                _writer.close(  );
+                _writer = null;
+                Files.move( _fileTemp.toPath(  ), _fileEntry.toPath(  ), StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to write the parsed cards cache entry " + _fileEntry, e );
+                abort(  );
+            }
+        }
+
+        /**
+         * Discards the entry, when the items of the file may be incomplete
+         */
+        public void abort(  )
+        {
+            if ( _writer != null )
+            {
+                try
+                {
+                    _writer.close(  );
+                }
+                catch ( IOException e )
+                {
+                    // The temporary file is deleted anyway
+                }
+
+                _writer = null;
+            }
+
+            _fileTemp.delete(  );
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Streams the Solr items handed by the parsers to a GZIP compressed JSON lines file, one item per line.
+ * The file is written to a temporary file and only replaces the previous export when it is complete :
+ * an export whose parse has failed must be abandoned with {@link #abort()} instead of {@link #close()}.
+ * The items are written as they are received, so an export never holds the corpus in memory.
+ * This class is not thread safe.
+ */
+public class SolrItemExporter implements SolrItemSink
+{
+    private static final String SUFFIX_TEMP = ".tmp";
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File _file;
+    private final File _fileTemp;
+    private final Writer _writer;
+    private final StringBuilder _sbLine = new StringBuilder( BUFFER_SIZE );
+    private IOException _exception;
+    private int _nItems;
+
+    /**
+     * Creates an exporter
+     *
+     * @param file the export file
+     * @throws IOException if the file cannot be created
+     */
+    public SolrItemExporter( File file ) throws IOException
+    {
+        _file = file;
+        _fileTemp = new File( file.getPath(  ) + SUFFIX_TEMP );
+
+        File fileDirectory = file.getAbsoluteFile(  ).getParentFile(  );
+
+        if ( fileDirectory != null )
+        {
+            fileDirectory.mkdirs(  );
+        }
+
+        _writer = new BufferedWriter( new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( _fileTemp ),
+                        BUFFER_SIZE ), CHARSET ), BUFFER_SIZE );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void accept( SolrItem item )
+    {
+        if ( _exception != null )
+        {
+            return;
+        }
+
+        _sbLine.setLength( 0 );
+        SolrItemJson.write( item, _sbLine );
+        _sbLine.append( '\n' );
+
+        try
+        {
+            _writer.append( _sbLine );
+            _nItems++;
+        }
+        catch ( IOException e )
+        {
+            // Reported by close(  ), the parsers cannot handle it
+            _exception = e;
+        }
+    }
+
+    /**
+     * Gets the number of exported items
+     *
+     * @return the number of items
+     */
+    public int getItemCount(  )
+    {
+        return _nItems;
+    }
+
+    /**
+     * Completes the export, replacing the previous export file
+     *
+     * @throws IOException if an item could not be written, the previous export file is then kept
+     */
+    public void close(  ) throws IOException
+    {
+        try
+        {
+            _writer.close(  );
+        }
+        catch ( IOException e )
+        {
+            if ( _exception == null )
+            {
+                _exception = e;
+            }
+        }
+
+        if ( _exception != null )
+        {
+            _fileTemp.delete(  );
+            throw _exception;
+        }
+
+        Files.move( _fileTemp.toPath(  ), _file.toPath(  ), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * Abandons an incomplete export : the temporary file is deleted and the previous export file is kept
+     */
+    public void abort(  )
+    {
+        try
+        {
+            _writer.close(  );
+        }
+        catch ( IOException e )
+        {
+            // The temporary file is deleted anyway
+        }
+
+        _fileTemp.delete(  );
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.util.Date;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * JSON form of the Solr items written by the comarquage parsers : a flat object per item,
+ * with the string fields and the date as a number of milliseconds
+ */
+final class SolrItemJson
+{
+    private static final String FIELD_UID = "uid";
+    private static final String FIELD_URL = "url";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_SITE = "site";
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_DATE = "date";
+    private static final String NULL = "null";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(  );
+
+    /**
+     * Private constructor
+     */
+    private SolrItemJson(  )
+    {
+    }
+
+    /**
+     * Appends the JSON form of an item
+     *
+     * @param item the item
+     * @param sbJson the buffer receiving the JSON object
+     */
+    static void write( SolrItem item, StringBuilder sbJson )
+    {
+        sbJson.append( '{' );
+        appendField( sbJson, FIELD_UID, item.getUid(  ) ).append( ',' );
+        appendField( sbJson, FIELD_URL, item.getUrl(  ) ).append( ',' );
+        appendField( sbJson, FIELD_TYPE, item.getType(  ) ).append( ',' );
+        appendField( sbJson, FIELD_SITE, item.getSite(  ) ).append( ',' );
+        appendField( sbJson, FIELD_TITLE, item.getTitle(  ) ).append( ',' );
+        appendField( sbJson, FIELD_CONTENT, item.getContent(  ) ).append( ',' );
+        appendString( sbJson, FIELD_DATE ).append( ':' );
+
+        if ( item.getDate(  ) == null )
+        {
+            sbJson.append( NULL );
+        }
+        else
+        {
+            sbJson.append( item.getDate(  ).getTime(  ) );
+        }
+
+        sbJson.append( '}' );
+    }
+
+    /**
+     * Reads an item from its JSON form. The unknown fields are ignored
+     *
+     * @param strJson the JSON object
+     * @return the item
+     * @throws IllegalArgumentException if the JSON object is invalid
+     */
+    static SolrItem read( String strJson )
+    {
+        SolrItem item = new SolrItem(  );
+        Reader reader = new Reader( strJson );
+        reader.expect( '{' );
+
+        if ( !reader.consume( '}' ) )
+        {
+            do
+            {
+                String strField = reader.readString(  );
+                reader.expect( ':' );
+
+                if ( FIELD_DATE.equals( strField ) )
+                {
+                    String strDate = reader.readNumber(  );
+                    item.setDate( ( strDate == null ) ? null : new Date( Long.parseLong( strDate ) ) );
+                }
+                else
+                {
+                    setField( item, strField, reader.readNullableString(  ) );
+                }
+            }
+            while ( reader.consume( ',' ) );
+
+            reader.expect( '}' );
+        }
+
+        reader.expectEnd(  );
+
+        return item;
+    }
+
+    /**
+     * Sets a string field of an item
+     *
+     * @param item the item
+     * @param strField the name of the field
+     * @param strValue the value
+     */
+    private static void setField( SolrItem item, String strField, String strValue )
+    {
+        if ( FIELD_UID.equals( strField ) )
+        {
+            item.setUid( strValue );
+        }
+        else if ( FIELD_URL.equals( strField ) )
+        {
+            item.setUrl( strValue );
+        }
+        else if ( FIELD_TYPE.equals( strField ) )
+        {
+            item.setType( strValue );
+        }
+        else if ( FIELD_SITE.equals( strField ) )
+        {
+            item.setSite( strValue );
+        }
+        else if ( FIELD_TITLE.equals( strField ) )
+        {
+            item.setTitle( strValue );
+        }
+        else if ( FIELD_CONTENT.equals( strField ) )
+        {
+            item.setContent( strValue );
+        }
+    }
+
+    /**
+     * Appends a string field
+     *
+     * @param sbJson the buffer
+     * @param strField the name of the field
+     * @param strValue the value, may be null
+     * @return the buffer
+     */
+    private static StringBuilder appendField( StringBuilder sbJson, String strField, String strValue )
+    {
+        appendString( sbJson, strField ).append( ':' );
+
+        return ( strValue == null ) ? sbJson.append( NULL ) : appendString( sbJson, strValue );
+    }
+
+    /**
+     * Appends a JSON string
+     *
+     * @param sbJson the buffer
+     * @param strValue the value
+     * @return the buffer
+     */
+    private static StringBuilder appendString( StringBuilder sbJson, String strValue )
+    {
+        sbJson.append( '"' );
+
+        for ( int i = 0; i < strValue.length(  ); i++ )
+        {
+            char c = strValue.charAt( i );
+
+            switch ( c )
+            {
+                case '"':
+                case '\\':
+                    sbJson.append( '\\' ).append( c );
+
+                    break;
+
+                case '\n':
+                    sbJson.append( "\\n" );
+
+                    break;
+
+                case '\r':
+                    sbJson.append( "\\r" );
+
+                    break;
+
+                case '\t':
+                    sbJson.append( "\\t" );
+
+                    break;
+
+                default:
+
+                    if ( c < 0x20 )
+                    {
+                        sbJson.append( "\\u00" ).append( HEX_DIGITS[c >> 4] ).append( HEX_DIGITS[c & 0xF] );
+                    }
+                    else
+                    {
+                        sbJson.append( c );
+                    }
+            }
+        }
+
+        return sbJson.append( '"' );
+    }
+
+    /**
+     * Reader of the flat JSON objects written by this class
+     */
+    private static final class Reader
+    {
+        private final String _strJson;
+        private int _nPosition;
+
+        /**
+         * Creates a reader
+         *
+         * @param strJson the JSON object
+         */
+        Reader( String strJson )
+        {
+            _strJson = strJson;
+        }
+
+        /**
+         * Consumes a character, after the white spaces
+         *
+         * @param c the character
+         * @return true if the character was found and consumed
+         */
+        boolean consume( char c )
+        {
+            skipSpaces(  );
+
+            if ( ( _nPosition < _strJson.length(  ) ) && ( _strJson.charAt( _nPosition ) == c ) )
+            {
+                _nPosition++;
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Consumes a character, after the white spaces
+         *
+         * @param c the character
+         * @throws IllegalArgumentException if the character is not found
+         */
+        void expect( char c )
+        {
+            if ( !consume( c ) )
+            {
+                throw error( "'" + c + "' expected" );
+            }
+        }
+
+        /**
+         * Checks that only white spaces remain
+         *
+         * @throws IllegalArgumentException if there are other characters
+         */
+        void expectEnd(  )
+        {
+            skipSpaces(  );
+
+            if ( _nPosition < _strJson.length(  ) )
+            {
+                throw error( "end of object expected" );
+            }
+        }
+
+        /**
+         * Reads a number or null
+         *
+         * @return the number, or null
+         */
+        String readNumber(  )
+        {
+            if ( consumeNull(  ) )
+            {
+                return null;
+            }
+
+            int nStart = _nPosition;
+
+            while ( ( _nPosition < _strJson.length(  ) ) &&
+                    ( ( _strJson.charAt( _nPosition ) == '-' ) || Character.isDigit( _strJson.charAt( _nPosition ) ) ) )
+            {
+                _nPosition++;
+            }
+
+            if ( nStart == _nPosition )
+            {
+                throw error( "number expected" );
+            }
+
+            return _strJson.substring( nStart, _nPosition );
+        }
+
+        /**
+         * Reads a string or null
+         *
+         * @return the string, or null
+         */
+        String readNullableString(  )
+        {
+            return consumeNull(  ) ? null : readString(  );
+        }
+
+        /**
+         * Reads a string
+         *
+         * @return the string
+         */
+        String readString(  )
+        {
+            expect( '"' );
+
+            StringBuilder sbValue = null;
+            int nStart = _nPosition;
+
+            while ( _nPosition < _strJson.length(  ) )
+            {
+                char c = _strJson.charAt( _nPosition++ );
+
+                if ( c == '"' )
+                {
+                    if ( sbValue == null )
+                    {
+                        return _strJson.substring( nStart, _nPosition - 1 );
+                    }
+
+                    return sbValue.toString(  );
+                }
+
+                if ( c == '\\' )
+                {
+                    if ( sbValue == null )
+                    {
+                        sbValue = new StringBuilder( _strJson.substring( nStart, _nPosition - 1 ) );
+                    }
+
+                    sbValue.append( readEscape(  ) );
+                }
+                else if ( sbValue != null )
+                {
+                    sbValue.append( c );
+                }
+            }
+
+            throw error( "unterminated string" );
+        }
+
+        /**
+         * Reads an escaped character, after the backslash
+         *
+         * @return the character
+         */
+        private char readEscape(  )
+        {
+            if ( _nPosition >= _strJson.length(  ) )
+            {
+                throw error( "unterminated string" );
+            }
+
+            char c = _strJson.charAt( _nPosition++ );
+
+            switch ( c )
+            {
+                case 'n':
+                    return '\n';
+
+                case 'r':
+                    return '\r';
+
+                case 't':
+                    return '\t';
+
+                case 'b':
+                    return '\b';
+
+                case 'f':
+                    return '\f';
+
+                case 'u':
+
+                    if ( ( _nPosition + 4 ) > _strJson.length(  ) )
+                    {
+                        throw error( "invalid unicode escape" );
+                    }
+
+                    try
+                    {
+                        char cUnicode = (char) Integer.parseInt( _strJson.substring( _nPosition, _nPosition + 4 ), 16 );
+                        _nPosition += 4;
+
+                        return cUnicode;
+                    }
+                    catch ( NumberFormatException e )
+                    {
+                        throw error( "invalid unicode escape" );
+                    }
+
+                default:
+                    return c;
+            }
+        }
+
+        /**
+         * Consumes a null value, after the white spaces
+         *
+         * @return true if a null value was consumed
+         */
+        private boolean consumeNull(  )
+        {
+            skipSpaces(  );
+
+            if ( _strJson.startsWith( NULL, _nPosition ) )
+            {
+                _nPosition += NULL.length(  );
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Skips the white spaces
+         */
+        private void skipSpaces(  )
+        {
+            while ( ( _nPosition < _strJson.length(  ) ) && Character.isWhitespace( _strJson.charAt( _nPosition ) ) )
+            {
+                _nPosition++;
+            }
+        }
+
+        /**
+         * Builds a parsing error
+         *
+         * @param strMessage the message
+         * @return the error
+         */
+        private IllegalArgumentException error( String strMessage )
+        {
+            return new IllegalArgumentException( strMessage + " at column " + ( _nPosition + 1 ) );
+        }
+    }
+}
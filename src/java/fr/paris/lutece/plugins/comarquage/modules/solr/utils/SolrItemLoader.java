@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers.SolrItemSink;
+
+
+/**
+ * Reads an export file written by {@link SolrItemExporter} and hands its items to a sink,
+ * without parsing the comarquage XML files again. The items are streamed : the file is never
+ * held in memory. An invalid line is reported and skipped.
+ */
+public class SolrItemLoader
+{
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File _file;
+    private int _nItems;
+
+    /**
+     * Creates a loader
+     *
+     * @param file the export file
+     */
+    public SolrItemLoader( File file )
+    {
+        _file = file;
+    }
+
+    /**
+     * Hands the items of the export file to a sink
+     *
+     * @param sink the sink, typically a batch writer to the Solr index
+     * @return the errors of the invalid lines
+     * @throws IOException if the file cannot be read
+     */
+    public List<String> load( SolrItemSink sink ) throws IOException
+    {
+        List<String> listErrors = new ArrayList<String>(  );
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new GZIPInputStream( 
+                        new FileInputStream( _file ), BUFFER_SIZE ), CHARSET ), BUFFER_SIZE );
+
+        try
+        {
+            String strLine;
+            int nLine = 0;
+
+            while ( ( strLine = reader.readLine(  ) ) != null )
+            {
+                nLine++;
+
+                if ( strLine.trim(  ).length(  ) == 0 )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    sink.accept( SolrItemJson.read( strLine ) );
+                    _nItems++;
+                }
+                catch ( IllegalArgumentException e )
+                {
+                    listErrors.add( _file.getName(  ) + " line " + nLine + " : " + e.getMessage(  ) );
+                }
+            }
+        }
+        finally
+        {
+            reader.close(  );
+        }
+
+        return listErrors;
+    }
+
+    /**
+     * Gets the number of items handed to the sink
+     *
+     * @return the number of items
+     */
+    public int getItemCount(  )
+    {
+        return _nItems;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+
+/**
+ * Compact map of Solr item UIDs to dates, such as the update dates of the cards. As in a
+ * {@link UidSet}, the UIDs are stored in a {@link UidHashTable}, their dates in its values,
+ * without an object per UID.
+ * This class is not thread safe.
+ */
+public final class UidDateMap
+{
+    /** Value returned for a UID which has not been put in the map */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    // Variables
+    private final UidHashTable _table = new UidHashTable( true );
+
+    /**
+     * Gets the date of a UID
+     *
+     * @param strUid the UID
+     * @return the date, in milliseconds, or {@link #MISSING} if the UID has not been put in the map
+     */
+    public long get( String strUid )
+    {
+        int nSlot = _table.find( strUid );
+
+        return ( nSlot == UidHashTable.NOT_FOUND ) ? MISSING : _table.getValue( nSlot );
+    }
+
+    /**
+     * Puts the date of a UID, replacing its previous date
+     *
+     * @param strUid the UID
+     * @param lDate the date, in milliseconds, other than {@link #MISSING}
+     */
+    public void put( String strUid, long lDate )
+    {
+        _table.setValue( _table.add( strUid ), lDate );
+    }
+
+    /**
+     * Gets the number of UIDs of the map
+     *
+     * @return the number of UIDs
+     */
+    public int size(  )
+    {
+        return _table.size(  );
+    }
+}
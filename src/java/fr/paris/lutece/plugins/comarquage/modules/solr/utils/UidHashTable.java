@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+
+/**
+ * Open addressing table of Solr item UIDs, shared by {@link UidSet} and {@link UidDateMap}. Each UID
+ * is stored as a 128 bits key, made of two independent 64 bits hashes kept in two tables of primitive
+ * longs, with an optional value per UID in a third one, so that hundreds of thousands of UIDs take a
+ * few megabytes whatever their length, without an object per UID.
+ * Two UIDs are only taken for each other when both their hashes collide, which is negligible below
+ * billions of billions of UIDs.
+ * This class is not thread safe.
+ */
+final class UidHashTable
+{
+    /** Index returned for a UID which is not in the table */
+    static final int NOT_FOUND = -1;
+
+    // Empty slot of the table, the hashes equal to it are replaced
+    private static final long EMPTY = 0L;
+    private static final long EMPTY_REPLACEMENT = 1L;
+
+    // FNV-1a 64 bits hash
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Second hash : multiplicative hash seeded with the golden ratio
+    private static final long SECOND_SEED = 0x9e3779b97f4a7c15L;
+    private static final long SECOND_MULTIPLIER = 0xd6e8feb86659fd93L;
+
+    // Table
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_LOAD_PERCENT = 50;
+
+    // Variables
+    private long[] _hashes;
+    private long[] _hashes2;
+    private long[] _values;
+    private int _nSize;
+
+    /**
+     * Creates an empty table
+     *
+     * @param bValues true to keep a value per UID
+     */
+    UidHashTable( boolean bValues )
+    {
+        _hashes = new long[MIN_CAPACITY];
+        _hashes2 = new long[MIN_CAPACITY];
+        _values = bValues ? new long[MIN_CAPACITY] : null;
+    }
+
+    /**
+     * Finds the slot of a UID
+     *
+     * @param strUid the UID
+     * @return the slot, or {@link #NOT_FOUND} if the UID is not in the table
+     */
+    int find( String strUid )
+    {
+        long lHash = hash( strUid );
+        long lHash2 = hash2( strUid );
+        int nMask = _hashes.length - 1;
+
+        for ( int nSlot = slot( lHash, nMask );; nSlot = ( nSlot + 1 ) & nMask )
+        {
+            long lCurrent = _hashes[nSlot];
+
+            if ( ( lCurrent == lHash ) && ( _hashes2[nSlot] == lHash2 ) )
+            {
+                return nSlot;
+            }
+
+            if ( lCurrent == EMPTY )
+            {
+                return NOT_FOUND;
+            }
+        }
+    }
+
+    /**
+     * Adds a UID, unless it is already in the table
+     *
+     * @param strUid the UID
+     * @return the slot of the UID
+     */
+    int add( String strUid )
+    {
+        if ( ( ( _nSize + 1 ) * 100L ) > ( (long) _hashes.length * MAX_LOAD_PERCENT ) )
+        {
+            resize(  );
+        }
+
+        return insert( _hashes, _hashes2, hash( strUid ), hash2( strUid ) );
+    }
+
+    /**
+     * Gets the value of a slot
+     *
+     * @param nSlot the slot
+     * @return the value
+     */
+    long getValue( int nSlot )
+    {
+        return _values[nSlot];
+    }
+
+    /**
+     * Sets the value of a slot
+     *
+     * @param nSlot the slot
+     * @param lValue the value
+     */
+    void setValue( int nSlot, long lValue )
+    {
+        _values[nSlot] = lValue;
+    }
+
+    /**
+     * Gets the number of UIDs of the table
+     *
+     * @return the number of UIDs
+     */
+    int size(  )
+    {
+        return _nSize;
+    }
+
+    /**
+     * Inserts the key of a UID into a table
+     *
+     * @param hashes the first hashes of the table
+     * @param hashes2 the second hashes of the table
+     * @param lHash the first hash of the UID
+     * @param lHash2 the second hash of the UID
+     * @return the slot of the UID
+     */
+    private int insert( long[] hashes, long[] hashes2, long lHash, long lHash2 )
+    {
+        int nMask = hashes.length - 1;
+
+        for ( int nSlot = slot( lHash, nMask );; nSlot = ( nSlot + 1 ) & nMask )
+        {
+            long lCurrent = hashes[nSlot];
+
+            if ( ( lCurrent == lHash ) && ( hashes2[nSlot] == lHash2 ) )
+            {
+                return nSlot;
+            }
+
+            if ( lCurrent == EMPTY )
+            {
+                hashes[nSlot] = lHash;
+                hashes2[nSlot] = lHash2;
+                _nSize++;
+
+                return nSlot;
+            }
+        }
+    }
+
+    /**
+     * Doubles the capacity of the table
+     */
+    private void resize(  )
+    {
+        long[] hashes = new long[_hashes.length * 2];
+        long[] hashes2 = new long[hashes.length];
+        long[] values = ( _values == null ) ? null : new long[hashes.length];
+        _nSize = 0;
+
+        for ( int i = 0; i < _hashes.length; i++ )
+        {
+            if ( _hashes[i] != EMPTY )
+            {
+                int nSlot = insert( hashes, hashes2, _hashes[i], _hashes2[i] );
+
+                if ( values != null )
+                {
+                    values[nSlot] = _values[i];
+                }
+            }
+        }
+
+        _hashes = hashes;
+        _hashes2 = hashes2;
+        _values = values;
+    }
+
+    /**
+     * Gets the first slot of a hash
+     *
+     * @param lHash the hash
+     * @param nMask the mask of the table indexes
+     * @return the slot
+     */
+    private static int slot( long lHash, int nMask )
+    {
+        return (int) ( lHash ^ ( lHash >>> 32 ) ) & nMask;
+    }
+
+    /**
+     * Hashes a UID : FNV-1a over its characters, followed by a final mix spreading the bits
+     *
+     * @param strUid the UID
+     * @return the hash, never {@link #EMPTY}
+     */
+    static long hash( String strUid )
+    {
+        long lHash = FNV_OFFSET_BASIS;
+
+        for ( int i = 0; i < strUid.length(  ); i++ )
+        {
+            lHash ^= strUid.charAt( i );
+            lHash *= FNV_PRIME;
+        }
+
+        lHash ^= ( lHash >>> 33 );
+        lHash *= 0xff51afd7ed558ccdL;
+        lHash ^= ( lHash >>> 33 );
+        lHash *= 0xc4ceb9fe1a85ec53L;
+        lHash ^= ( lHash >>> 33 );
+
+        return ( lHash == EMPTY ) ? EMPTY_REPLACEMENT : lHash;
+    }
+
+    /**
+     * Hashes a UID a second time, independently of {@link #hash(String)} : multiplicative hash over
+     * its characters, followed by another final mix
+     *
+     * @param strUid the UID
+     * @return the second hash
+     */
+    static long hash2( String strUid )
+    {
+        long lHash = SECOND_SEED;
+
+        for ( int i = 0; i < strUid.length(  ); i++ )
+        {
+            lHash = ( lHash + strUid.charAt( i ) ) * SECOND_MULTIPLIER;
+        }
+
+        lHash ^= ( lHash >>> 30 );
+        lHash *= 0xbf58476d1ce4e5b9L;
+        lHash ^= ( lHash >>> 27 );
+        lHash *= 0x94d049bb133111ebL;
+        lHash ^= ( lHash >>> 31 );
+
+        return lHash;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+
+/**
+ * Compact set of Solr item UIDs, stored in a {@link UidHashTable} : hundreds of thousands of UIDs
+ * take a few megabytes whatever their length, without an object per UID.
+ * This class is not thread safe.
+ */
+public final class UidSet
+{
+    // Variables
+    private final UidHashTable _table = new UidHashTable( false );
+
+    /**
+     * Adds a UID to the set
+     *
+     * @param strUid the UID
+     * @return true if the UID was not already contained
+     */
+    public boolean add( String strUid )
+    {
+        int nSize = _table.size(  );
+        _table.add( strUid );
+
+        return _table.size(  ) > nSize;
+    }
+
+    /**
+     * Checks whether a UID has been added to the set
+     *
+     * @param strUid the UID
+     * @return true if the UID has been added
+     */
+    public boolean contains( String strUid )
+    {
+        return _table.find( strUid ) != UidHashTable.NOT_FOUND;
+    }
+
+    /**
+     * Gets the number of UIDs of the set
+     *
+     * @return the number of UIDs
+     */
+    public int size(  )
+    {
+        return _table.size(  );
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Parses the update dates of the cards, written as "dd MMMMM yyyy" in French.
+ * Well formed dates are parsed with java.time; any other value is parsed by the lenient
+ * SimpleDateFormat used so far, so that the dates are exactly the same as before, including
+ * null for an unparseable value. The cards share a few hundred dates, so the parsed dates are
+ * kept in a cache bounded to the most recently used ones.
+ * This class is thread safe.
+ */
+public final class CardDateParser
+{
+    // Properties
+    private static final String PROPERTY_CACHE_SIZE = "comarquage-solr.parser.dateCache.size";
+    private static final int DEFAULT_CACHE_SIZE = 2048;
+
+    // Formats
+    private static final String PATTERN_DATE = "dd MMMMM yyyy";
+    private static final String PATTERN_DATE_STRICT = "dd MMMM uuuu";
+    private static final Locale LOCALE = Locale.FRENCH;
+
+    // Older dates are left to SimpleDateFormat, whose calendar and historical time zone offsets
+    // may differ from the java.time ones
+    private static final int MIN_YEAR = 1970;
+
+    // Cached value of an unparseable date
+    private static final long UNPARSEABLE = Long.MIN_VALUE;
+
+    // Variables
+    private static final DateTimeFormatter FORMATTER = new DateTimeFormatterBuilder(  ).parseCaseInsensitive(  )
+            .appendPattern( PATTERN_DATE_STRICT ).toFormatter( LOCALE ).withResolverStyle( ResolverStyle.STRICT );
+    private static final ThreadLocal<SimpleDateFormat> LENIENT_FORMAT = new ThreadLocal<SimpleDateFormat>(  )
+        {
+            protected SimpleDateFormat initialValue(  )
+            {
+                return new SimpleDateFormat( PATTERN_DATE, LOCALE );
+            }
+        };
+
+
+    // Singleton
+    private static CardDateParser _singleton;
+
+    // Cache of the parsed dates, in access order
+    private final Map<String, Long> _mapCache;
+
+    /**
+     * Creates a parser
+     *
+     * @param nCacheSize the maximum number of dates kept in cache, 0 for no cache
+     */
+    CardDateParser( final int nCacheSize )
+    {
+        _mapCache = new LinkedHashMap<String, Long>( 16, 0.75f, true )
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    protected boolean removeEldestEntry( Map.Entry<String, Long> eldest )
+                    {
+                        return size(  ) > nCacheSize;
+                    }
+                };
+    }
+
+    /**
+     * Gets the parser shared by the card parsers, configured from comarquage-solr.properties
+     *
+     * @return the parser
+     */
+    public static synchronized CardDateParser getInstance(  )
+    {
+        if ( _singleton == null )
+        {
+            _singleton = new CardDateParser( Math.max( 0,
+                        AppPropertiesService.getPropertyInt( PROPERTY_CACHE_SIZE, DEFAULT_CACHE_SIZE ) ) );
+        }
+
+        return _singleton;
+    }
+
+    /**
+     * Parses the update date of a card
+     *
+     * @param strDate the date, as "dd MMMMM yyyy" in French
+     * @return the date, or null if the value cannot be parsed
+     */
+    public Date parse( String strDate )
+    {
+        Long lCached;
+
+        synchronized ( _mapCache )
+        {
+            lCached = _mapCache.get( strDate );
+        }
+
+        long lTime;
+
+        if ( lCached != null )
+        {
+            lTime = lCached;
+        }
+        else
+        {
+            // Parsed out of the lock, a date parsed by two threads at once is cached twice
+            lTime = parseTime( strDate );
+
+            synchronized ( _mapCache )
+            {
+                _mapCache.put( strDate, lTime );
+            }
+        }
+
+        return ( lTime == UNPARSEABLE ) ? null : new Date( lTime );
+    }
+
+    /**
+     * Parses a date
+     *
+     * @param strDate the date
+     * @return the time of the date, or UNPARSEABLE
+     */
+    private static long parseTime( String strDate )
+    {
+        try
+        {
+            LocalDate date = LocalDate.parse( strDate, FORMATTER );
+
+            if ( date.getYear(  ) >= MIN_YEAR )
+            {
+                return date.atStartOfDay( ZoneId.systemDefault(  ) ).toInstant(  ).toEpochMilli(  );
+            }
+        }
+        catch ( DateTimeParseException e )
+        {
+            // Not a well formed date : parsed by the lenient format
+        }
+
+        try
+        {
+            return LENIENT_FORMAT.get(  ).parse( strDate ).getTime(  );
+        }
+        catch ( ParseException e )
+        {
+            return UNPARSEABLE;
+        }
+    }
+}
@@ -34,22 +34,27 @@
 package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingCheckpoint;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.LocalCardsManifest;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.ParsedCardsCache;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
 import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
@@ -63,7 +68,7 @@ import fr.paris.lutece.util.url.UrlItem;
 /**
  * Parser for local cards (comarquage)
  */
-public class CoMarquageSolrLocalParser extends DefaultHandler
+public class CoMarquageSolrLocalParser extends DefaultHandler implements CorpusParser
 {
     // -------------
     // - Constants -
@@ -81,6 +86,15 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
     private static final String PROPERTY_XPATH_TITLE = "comarquage.parser.xpath.local.title";
     private static final String PROPERTY_ATTRIBUTE_URL = "comarquage.parser.xpath.local.attribute.url";
 
+    // Extraction of the contents
+    private static final String PROPERTY_CONTENTS_INCLUDES = "comarquage-solr.parser.local.contentsIncludes";
+    private static final String PROPERTY_CONTENTS_EXCLUDES = "comarquage-solr.parser.local.contentsExcludes";
+    private static final String PROPERTY_MAX_CONTENTS_LENGTH = "comarquage-solr.parser.local.maxContentsLength";
+    private static final String PROPERTY_MAX_TITLE_LENGTH = "comarquage-solr.parser.local.maxTitleLength";
+    private static final String PROPERTY_MAX_DATE_LENGTH = "comarquage-solr.parser.local.maxDateLength";
+    private static final int NO_LIMIT = 0;
+    private static final String XPATH_SEPARATOR = ",";
+
     // Index type
     private static final String PROPERTY_INDEXING_TYPE = "comarquage-solr.indexing.localType";
 
@@ -91,44 +105,157 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
     // URL delimiter
     private static final String PROPERTY_URL_DELIMITER = "comarquage.parser.url.local.delimiter";
 
+    // Parsing engine
+    private static final String PROPERTY_PARSER_ENGINE = "comarquage-solr.parser.engine";
+    private static final String ENGINE_STAX = "stax";
+
+    // Number of parser threads
+    private static final String PROPERTY_PARSER_THREADS = "comarquage-solr.indexing.localParserThreads";
+
+    // Filter of the local cards tree
+    private static final String PROPERTY_INDEXING_LOCAL_INCLUDES = "comarquage-solr.indexing.localIncludes";
+    private static final String PROPERTY_INDEXING_LOCAL_EXCLUDES = "comarquage-solr.indexing.localExcludes";
+    private static final String DEFAULT_LOCAL_INCLUDES = "*.xml";
+    private static final String DEFAULT_LOCAL_EXCLUDES = "CVS,.*,*~,*.tmp,*.bak";
+
+    // Corpus name
+    private static final String CORPUS_NAME = "local";
+
     // Strings
     private static final String STRING_EMPTY = "";
     private static final String STRING_POINT = ".";
+    private static final String STRING_PARENT_PATH = "..";
     private static final String STRING_SLASH = "/";
-    private static final String STRING_SPACE = " ";
+    private static final char CHAR_SPACE = ' ';
     private static final String SHORT_NAME = "comgeloc";
 
+    // Properties shaping the Solr items, signing the cached items
+    private static final String[] SIGNATURE_PROPERTIES = 
+        {
+            PROPERTY_PLUGIN_NAME, PROPERTY_XPATH_CARD, PROPERTY_XPATH_DATE, PROPERTY_XPATH_TITLE, PROPERTY_ATTRIBUTE_URL,
+            PROPERTY_INDEXING_TYPE, PROPERTY_PATH_ID, PROPERTY_PATH_FIRST_NODE, PROPERTY_URL_DELIMITER,
+            PROPERTY_CONTENTS_INCLUDES, PROPERTY_CONTENTS_EXCLUDES, PROPERTY_MAX_CONTENTS_LENGTH, PROPERTY_MAX_TITLE_LENGTH,
+            PROPERTY_MAX_DATE_LENGTH
+        };
+
+    // Capacity of the contents buffer kept from a card to another
+    private static final int MAX_RETAINED_CAPACITY = 65536;
+
+    // XPaths matched by the current element
+    private static final int MATCH_CARD = 1;
+    private static final int MATCH_DATE = 2;
+    private static final int MATCH_TITLE = 4;
+
+    // Subtree XPaths of the contents
+    private static final int MATCH_CONTENTS_INCLUDE = 1;
+    private static final int MATCH_CONTENTS_EXCLUDE = 2;
+
     // -------------
     // - Variables -
     // -------------
     // List of Solr items
     private List<SolrItem> _listSolrItems;
 
-    // XPath
-    private String _strXPath;
+    // Sink receiving the Solr items
+    private SolrItemSink _sink;
+
+    // Parsing engines
+    private boolean _bStaxEngine;
+    private SAXParser _parser;
+    private StaxDocumentParser _staxParser;
+
+    // Subtree filter of the StAX engine : the subtrees outside of the XPaths and of the contents are skipped
+    private final StaxDocumentParser.SubtreeFilter _subtreeFilter = new StaxDocumentParser.SubtreeFilter(  )
+        {
+            public boolean isSkippable(  )
+            {
+                return _xpathMatcher.isOutside(  ) && !isContents( _xpathMatcher.getSubtreeMatches(  ) );
+            }
+        };
+
+    // Manifest of the previous run
+    private LocalCardsManifest _manifest;
 
-    // Contents
+    // Cache of the parsed cards
+    private ParsedCardsCache _cache;
+
+    // Checkpoint of the run, and writer flushed before each save
+    private IndexingCheckpoint _checkpoint;
+    private Flushable _writer;
+
+    // Metrics of the run, and time spent by this parser building and handing the items
+    private IndexingMetrics _metrics = new IndexingMetrics(  );
+    private long _lItemNanos;
+
+    // Parser of the card dates
+    private final CardDateParser _dateParser = CardDateParser.getInstance(  );
+
+    // XPaths of the contents
+    private XPathMatcher _xpathMatcher;
+    private String _strAttributeUrl;
+    private boolean _bContentsIncludes;
+
+    // Maximum lengths of the contents, title and date of a card, 0 for no limit
+    private int _nMaxContentsLength;
+    private int _nMaxTitleLength;
+    private int _nMaxDateLength;
+
+    // Card ID, and path ID of the parsed file
+    private String _strUrlDelimiter;
+    private String _strFirstNode;
+    private Path _pathRoot;
+    private String _strFilePathId;
+
+    // Contents, reused from a card to another
     private String _strURL;
-    private String _strDate;
+    private final StringBuilder _sbDate = new StringBuilder(  );
+    private final StringBuilder _sbTitle = new StringBuilder(  );
+    private StringBuilder _sbContents = new StringBuilder(  );
+    private boolean _bTruncated;
     private String _strType;
     private String _strSite;
-    private String _strProdUrl;
-    private String _strTitle;
-    private String _strContents;
+    private String _strUrlPrefix;
 
     /**
-     * Initializes and launches the parsing of the local cards (public constructor)
+     * Initializes and launches the parsing of the local cards (public constructor).
+     * All the Solr items are kept in memory and can be retrieved with {@link #getLocalSolrItems()}
      */
     public CoMarquageSolrLocalParser(  )
     {
-        // Gets the local cards path
-        String strLocalBasePath = AppPropertiesService.getProperty( PROPERTY_INDEXING_LOCAL_PATH );
-        String strLocalPath = AppPathService.getPath( PROPERTY_INDEXING_XML_BASE_VAR, strLocalBasePath );
-        File fileBasePath = new File( strLocalPath );
-
         // Initializes the SolrItem list
         _listSolrItems = new ArrayList<SolrItem>(  );
 
+        init( new SolrItemSink(  )
+            {
+                public void accept( SolrItem item )
+                {
+                    _listSolrItems.add( item );
+                }
+            } );
+
+        parse(  );
+    }
+
+    /**
+     * Initializes the parser of the local cards. The parsing is launched by {@link #parse()}
+     * and each Solr item is handed to the sink as soon as its card is parsed
+     *
+     * @param sink the sink receiving the Solr items
+     */
+    public CoMarquageSolrLocalParser( SolrItemSink sink )
+    {
+        init( sink );
+    }
+
+    /**
+     * Initializes the parser
+     *
+     * @param sink the sink receiving the Solr items
+     */
+    private void init( SolrItemSink sink )
+    {
+        _sink = sink;
+
         // Initializes the indexing type
         _strType = AppPropertiesService.getProperty( PROPERTY_INDEXING_TYPE );
 
@@ -136,70 +263,342 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
         _strSite = SolrIndexerService.getWebAppName(  );
 
         // Initializes the prod url
-        _strProdUrl = SolrIndexerService.getBaseUrl(  );
+        String strProdUrl = SolrIndexerService.getBaseUrl(  );
 
-        if ( !_strProdUrl.endsWith( "/" ) )
+        if ( !strProdUrl.endsWith( "/" ) )
         {
-            _strProdUrl = _strProdUrl + "/";
+            strProdUrl = strProdUrl + "/";
         }
 
-        try
+        // Initializes the prefix of the card URLs : the xpage URL ending with the path ID parameter,
+        // whose value is appended for each card. It is built by UrlItem, giving the same URLs
+        UrlItem url = new UrlItem( strProdUrl );
+        url.addParameter( XPageAppService.PARAM_XPAGE_APP, AppPropertiesService.getProperty( PROPERTY_PLUGIN_NAME ) );
+        url.addParameter( AppPropertiesService.getProperty( PROPERTY_PATH_ID ), STRING_EMPTY );
+        _strUrlPrefix = url.getUrl(  );
+
+        // Compiles the XPaths of the contents
+        _xpathMatcher = new XPathMatcher(  );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_CARD ), MATCH_CARD );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_DATE ), MATCH_DATE );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_TITLE ), MATCH_TITLE );
+        _strAttributeUrl = AppPropertiesService.getProperty( PROPERTY_ATTRIBUTE_URL );
+        _bContentsIncludes = addSubtreeXPaths( AppPropertiesService.getProperty( PROPERTY_CONTENTS_INCLUDES ),
+                MATCH_CONTENTS_INCLUDE );
+        addSubtreeXPaths( AppPropertiesService.getProperty( PROPERTY_CONTENTS_EXCLUDES ), MATCH_CONTENTS_EXCLUDE );
+
+        // Initializes the maximum lengths of the extracted texts
+        _nMaxContentsLength = AppPropertiesService.getPropertyInt( PROPERTY_MAX_CONTENTS_LENGTH, NO_LIMIT );
+        _nMaxTitleLength = AppPropertiesService.getPropertyInt( PROPERTY_MAX_TITLE_LENGTH, NO_LIMIT );
+        _nMaxDateLength = AppPropertiesService.getPropertyInt( PROPERTY_MAX_DATE_LENGTH, NO_LIMIT );
+
+        // Initializes the card ID parts
+        _strUrlDelimiter = STRING_POINT + AppPropertiesService.getProperty( PROPERTY_URL_DELIMITER );
+        _strFirstNode = AppPropertiesService.getProperty( PROPERTY_PATH_FIRST_NODE ) + STRING_SLASH;
+        _pathRoot = getLocalPath(  ).toPath(  ).toAbsolutePath(  ).normalize(  );
+
+        // Initializes the parsing engine
+        _bStaxEngine = ENGINE_STAX.equals( AppPropertiesService.getProperty( PROPERTY_PARSER_ENGINE ) );
+    }
+
+    /**
+     * Compiles comma separated subtree XPaths of the contents
+     *
+     * @param strXPaths the XPaths, or null
+     * @param nMatch the flag of the XPaths
+     * @return true if at least one XPath has been compiled
+     */
+    private boolean addSubtreeXPaths( String strXPaths, int nMatch )
+    {
+        boolean bAdded = false;
+
+        if ( strXPaths != null )
         {
-            // Initializes the SAX parser
-            SAXParserFactory factory = SAXParserFactory.newInstance(  );
-            SAXParser parser = factory.newSAXParser(  );
+            for ( String strXPath : strXPaths.split( XPATH_SEPARATOR ) )
+            {
+                strXPath = strXPath.trim(  );
 
-            // Launches the parsing on each local card
-            parseAllLocalCards( fileBasePath, parser );
+                if ( strXPath.length(  ) > 0 )
+                {
+                    _xpathMatcher.addSubtreeXPath( strXPath, nMatch );
+                    bAdded = true;
+                }
+            }
         }
-        catch ( ParserConfigurationException e )
+
+        return bAdded;
+    }
+
+    /**
+     * Launches the parsing of the local cards. When more than one parser thread is configured,
+     * the cards are parsed in parallel : the Solr items are the same as with a sequential
+     * parsing, but the sink receives them in no particular order and must not rely on it.
+     */
+    public void parse(  )
+    {
+        int nThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PARSER_THREADS, 1 ) );
+
+        // Launches the parsing on each local card
+        ComarquageIndexingEngine engine = new ComarquageIndexingEngine( _sink, _metrics, nThreads );
+        engine.addCorpus( getCorpusDescriptor( _manifest ) );
+        engine.setCache( _cache );
+        engine.setCheckpoint( _checkpoint, _writer );
+        engine.run(  );
+    }
+
+    /**
+     * Gets the description of the local cards corpus, for the indexing engine
+     *
+     * @param manifest the manifest of the previous run, to skip the unchanged cards, or null
+     * @return the corpus descriptor
+     */
+    public static CorpusDescriptor getCorpusDescriptor( final LocalCardsManifest manifest )
+    {
+        return new CorpusDescriptor(  )
+            {
+                public String getName(  )
+                {
+                    return CORPUS_NAME;
+                }
+
+                public String getSignature(  )
+                {
+                    StringBuilder sbSignature = new StringBuilder( CORPUS_NAME );
+
+                    for ( String strProperty : SIGNATURE_PROPERTIES )
+                    {
+                        sbSignature.append( '\n' ).append( AppPropertiesService.getProperty( strProperty ) );
+                    }
+
+                    sbSignature.append( '\n' ).append( SolrIndexerService.getWebAppName(  ) );
+                    sbSignature.append( '\n' ).append( SolrIndexerService.getBaseUrl(  ) );
+
+                    return sbSignature.toString(  );
+                }
+
+                public List<File> getRoots(  )
+                {
+                    return Collections.singletonList( getLocalPath(  ) );
+                }
+
+                public CorpusPathFilter getPathFilter(  )
+                {
+                    return CorpusPathFilter.fromProperties( PROPERTY_INDEXING_LOCAL_INCLUDES, DEFAULT_LOCAL_INCLUDES,
+                        PROPERTY_INDEXING_LOCAL_EXCLUDES, DEFAULT_LOCAL_EXCLUDES );
+                }
+
+                public CorpusParser createParser( SolrItemSink sink, IndexingMetrics metrics )
+                {
+                    CoMarquageSolrLocalParser parser = new CoMarquageSolrLocalParser( sink );
+                    parser.setManifest( manifest );
+                    parser.setMetrics( metrics );
+
+                    return parser;
+                }
+            };
+    }
+
+    /**
+     * Launches the parsing of a single local card
+     *
+     * @param strPathId the path ID of the card
+     */
+    public void parse( String strPathId )
+    {
+        // Only the cards of the local tree can be parsed
+        if ( !strPathId.startsWith( _strFirstNode ) || strPathId.contains( STRING_PARENT_PATH ) )
         {
-            AppLogService.error( e.getMessage(  ), e );
+            return;
         }
-        catch ( SAXException e )
+
+        // Gets the local card file from its path ID
+        File fileCard = new File( getLocalPath(  ), strPathId.substring( _strFirstNode.length(  ) ) + _strUrlDelimiter );
+
+        if ( fileCard.isFile(  ) )
         {
-            AppLogService.error( e.getMessage(  ), e );
+            parseCorpusFile( fileCard );
+        }
+    }
+
+    /**
+     * Gets the path ID of a local card file, as given to {@link #parse(String)}
+     *
+     * @param fileCard the local card file
+     * @return the path ID, or null if the file is not a card of the local tree
+     */
+    public String getPathId( File fileCard )
+    {
+        Path pathCard = fileCard.toPath(  ).toAbsolutePath(  ).normalize(  );
+
+        if ( !pathCard.startsWith( _pathRoot ) )
+        {
+            return null;
+        }
+
+        String strRelativePath = _pathRoot.relativize( pathCard ).toString(  ).replace( File.separatorChar, '/' );
+
+        if ( !strRelativePath.endsWith( _strUrlDelimiter ) )
+        {
+            return null;
         }
+
+        return _strFirstNode + strRelativePath.substring( 0, strRelativePath.length(  ) - _strUrlDelimiter.length(  ) );
+    }
+
+    /**
+     * Gets the root directory of the local cards
+     *
+     * @return the directory
+     */
+    private static File getLocalPath(  )
+    {
+        String strLocalBasePath = AppPropertiesService.getProperty( PROPERTY_INDEXING_LOCAL_PATH );
+
+        return new File( AppPathService.getPath( PROPERTY_INDEXING_XML_BASE_VAR, strLocalBasePath ) );
+    }
+
+    /**
+     * Gets the UID of the Solr item of a local card
+     *
+     * @param strPathId the path ID of the card
+     * @return the UID
+     */
+    public static String getUid( String strPathId )
+    {
+        return strPathId + SolrConstants.CONSTANT_UNDERSCORE + SHORT_NAME;
     }
 
     /**
-     * Launches the parsing on each local card
+     * Launches the parsing of a local card with the current handler. When a manifest is set,
+     * the card is skipped if it has not changed since the previous run
      *
-     * @param fileBasePath the base path
-     * @param parser the SAX parser
+     * @param fileCard the local card file
+     * @return true if the card has been parsed, false if it has been skipped or could not be parsed
      */
-    private void parseAllLocalCards( File fileBasePath, SAXParser parser )
+    public boolean parseCorpusFile( File fileCard )
     {
-        if ( fileBasePath.isFile(  ) )
+        _metrics.addFileScanned(  );
+
+        try
         {
-            // Launches the parsing of this local card (with the current handler)
-            try
+            LocalCardsManifest.Entry entry = null;
+
+            if ( _manifest != null )
             {
-                parser.parse( fileBasePath.getAbsolutePath(  ), this );
+                entry = _manifest.check( fileCard );
+
+                if ( entry == null )
+                {
+                    return false;
+                }
             }
-            catch ( SAXException e )
+
+            long lStart = System.nanoTime(  );
+            long lItemNanos = _lItemNanos;
+            _strFilePathId = getPathId( fileCard );
+
+            if ( _bStaxEngine )
             {
-                AppLogService.error( e.getMessage(  ), e );
+                if ( _staxParser == null )
+                {
+                    _staxParser = new StaxDocumentParser(  );
+                }
+
+                _staxParser.parse( fileCard, this, _subtreeFilter );
             }
-            catch ( IOException e )
+            else
             {
-                AppLogService.error( e.getMessage(  ), e );
-            }
-        }
-        else
-        {
-            // Processes all the files of the current directory
-            File[] files = fileBasePath.listFiles(  );
+                // Initializes the SAX parser
+                if ( _parser == null )
+                {
+                    _parser = ComarquageIndexingEngine.newSAXParser(  );
+                }
 
-            for ( File fileCurrent : files )
-            {
-                if ( !fileCurrent.getAbsolutePath(  ).endsWith( "CVS" ) )
+                InputStream in = PooledFileInput.getInstance(  ).open( fileCard );
+
+                try
                 {
-                    // Launches the parsing on each local card (recursive)
-                    parseAllLocalCards( fileCurrent, parser );
+                    InputSource source = new InputSource( in );
+                    source.setSystemId( fileCard.toURI(  ).toString(  ) );
+                    _parser.parse( source, this );
+                }
+                finally
+                {
+                    in.close(  );
                 }
             }
+
+            // The building and the writing of the item are timed separately
+            _metrics.addParseTime( System.nanoTime(  ) - lStart - ( _lItemNanos - lItemNanos ) );
+            _metrics.addBytesRead( fileCard.length(  ) );
+
+            if ( entry != null )
+            {
+                _manifest.record( entry );
+            }
+
+            return true;
         }
+        catch ( ParserConfigurationException e )
+        {
+            _metrics.addError(  );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+        catch ( SAXException e )
+        {
+            _metrics.addError(  );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+        catch ( IOException e )
+        {
+            _metrics.addError(  );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the manifest of the previous run, to skip the unchanged cards during {@link #parse()}
+     *
+     * @param manifest the manifest
+     */
+    public void setManifest( LocalCardsManifest manifest )
+    {
+        _manifest = manifest;
+    }
+
+    /**
+     * Sets the cache of the parsed cards, replaying the items of the unchanged cards during {@link #parse()}.
+     * It must not be used with a manifest
+     *
+     * @param cache the cache
+     */
+    public void setCache( ParsedCardsCache cache )
+    {
+        _cache = cache;
+    }
+
+    /**
+     * Sets the checkpoint of the run, skipping the cards completed by an interrupted run during {@link #parse()}
+     *
+     * @param checkpoint the checkpoint
+     * @param writer the writer of the items, flushed before each save of the checkpoint
+     */
+    public void setCheckpoint( IndexingCheckpoint checkpoint, Flushable writer )
+    {
+        _checkpoint = checkpoint;
+        _writer = writer;
+    }
+
+    /**
+     * Sets the metrics of the run, updated by the parsing
+     *
+     * @param metrics the metrics
+     */
+    public void setMetrics( IndexingMetrics metrics )
+    {
+        _metrics = metrics;
     }
 
     /**
@@ -210,13 +609,23 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
     public void startDocument(  ) throws SAXException
     {
         // Initializes the XPATH
-        _strXPath = STRING_EMPTY;
+        _xpathMatcher.reset(  );
 
         // Initializes the contents
         _strURL = STRING_EMPTY;
-        _strDate = STRING_EMPTY;
-        _strTitle = STRING_EMPTY;
-        _strContents = STRING_EMPTY;
+        _sbDate.setLength( 0 );
+        _sbTitle.setLength( 0 );
+        _bTruncated = false;
+
+        // Releases the buffer grown by an oversized card
+        if ( _sbContents.capacity(  ) > MAX_RETAINED_CAPACITY )
+        {
+            _sbContents = new StringBuilder(  );
+        }
+        else
+        {
+            _sbContents.setLength( 0 );
+        }
     }
 
     /**
@@ -226,45 +635,46 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
     */
     public void endDocument(  ) throws SAXException
     {
-        // Sets the ID 
-        String strDelimiter = STRING_POINT + AppPropertiesService.getProperty( PROPERTY_URL_DELIMITER );
-        String strFirstNode = AppPropertiesService.getProperty( PROPERTY_PATH_FIRST_NODE ) + STRING_SLASH;
-        String strId = strFirstNode + _strURL.split( strDelimiter )[0];
-
-        // Sets the full URL
-        UrlItem url = new UrlItem( _strProdUrl );
-        url.addParameter( XPageAppService.PARAM_XPAGE_APP, AppPropertiesService.getProperty( PROPERTY_PLUGIN_NAME ) );
-        url.addParameter( AppPropertiesService.getProperty( PROPERTY_PATH_ID ), strId );
-        
-        // Converts the date from "dd MMMMM yyyy" to "yyyyMMdd"
-        Locale locale = Locale.FRENCH;
-        Date dateUpdate = null;
+        long lStart = System.nanoTime(  );
 
-        try
-        {
-            SimpleDateFormat dateFormat = new SimpleDateFormat( "dd MMMMM yyyy", locale );
-            dateUpdate = dateFormat.parse( _strDate );
+        // Sets the ID 
+        String strId = _strFirstNode + _strURL.split( _strUrlDelimiter )[0];
 
-            dateFormat.applyPattern( "yyyyMMdd" );
-        }
-        catch ( ParseException e )
+        // The watch daemon deletes the removed cards it has not parsed under the path ID of their file.
+        // A card declaring another URL is a data issue, reported on every run : it is only logged in debug
+        if ( ( _strFilePathId != null ) && !_strFilePathId.equals( strId ) )
         {
-            dateUpdate = null;
+            AppLogService.debug( "Local card " + _strFilePathId + " declares the URL of " + strId +
+                " : its item may not be deleted with the file" );
         }
 
+        // Converts the date from "dd MMMMM yyyy"
+        Date dateUpdate = _dateParser.parse( _sbDate.toString(  ) );
+
         // Creates a new lucene document
         SolrItem item = new SolrItem(  );
 
-        item.setUrl( url.getUrl(  ) );
+        item.setUrl( _strUrlPrefix.concat( strId ) );
         item.setDate( dateUpdate );
-        item.setUid( strId + SolrConstants.CONSTANT_UNDERSCORE + SHORT_NAME );
-        item.setContent( _strContents );
-        item.setTitle( _strTitle );
+        item.setUid( getUid( strId ) );
+        item.setContent( _sbContents.toString(  ) );
+        item.setTitle( _sbTitle.toString(  ) );
         item.setType( _strType );
         item.setSite( _strSite );
 
-        // Adds the new item to the list
-        _listSolrItems.add( item );
+        _metrics.addCardParsed(  );
+
+        if ( _bTruncated )
+        {
+            _metrics.addCardTruncated(  );
+            AppLogService.debug( "Local card " + strId + " truncated to the maximum lengths of its texts" );
+        }
+
+        _metrics.addBuildTime( System.nanoTime(  ) - lStart );
+
+        // Hands the new item to the sink
+        _sink.accept( item );
+        _lItemNanos += ( System.nanoTime(  ) - lStart );
     }
 
     /**
@@ -281,15 +691,12 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
         throws SAXException
     {
         // Updates the XPath
-        _strXPath += ( STRING_SLASH + qName );
+        _xpathMatcher.startElement( qName );
 
         // Gets the URL (attribute)
-        String strXPathCard = AppPropertiesService.getProperty( PROPERTY_XPATH_CARD );
-
-        if ( ( _strXPath != null ) && _strXPath.equals( strXPathCard ) )
+        if ( ( _xpathMatcher.getMatches(  ) & MATCH_CARD ) != 0 )
         {
-            String strAttributeUrl = AppPropertiesService.getProperty( PROPERTY_ATTRIBUTE_URL );
-            _strURL = atts.getValue( strAttributeUrl );
+            _strURL = atts.getValue( _strAttributeUrl );
         }
     }
 
@@ -306,7 +713,7 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
         throws SAXException
     {
         // Updates the XPath
-        _strXPath = _strXPath.substring( 0, _strXPath.lastIndexOf( STRING_SLASH ) );
+        _xpathMatcher.endElement(  );
     }
 
     /**
@@ -321,35 +728,97 @@ public class CoMarquageSolrLocalParser extends DefaultHandler
     public void characters( char[] ch, int start, int length )
         throws SAXException
     {
-        // Gets the XPath comparisons properties
-        String strXPathDate = AppPropertiesService.getProperty( PROPERTY_XPATH_DATE );
-        String strXPathTitle = AppPropertiesService.getProperty( PROPERTY_XPATH_TITLE );
+        // Gets the XPaths matched by the current element
+        int nMatches = _xpathMatcher.getMatches(  );
 
         // Gets the date
-        if ( ( _strXPath != null ) && _strXPath.equals( strXPathDate ) )
+        if ( ( nMatches & MATCH_DATE ) != 0 )
         {
-            _strDate += new String( ch, start, length );
+            append( _sbDate, ch, start, length, _nMaxDateLength );
         }
 
         // Gets the title
-        else if ( ( _strXPath != null ) && _strXPath.equals( strXPathTitle ) )
+        else if ( ( nMatches & MATCH_TITLE ) != 0 )
         {
-            _strTitle += new String( ch, start, length );
+            append( _sbTitle, ch, start, length, _nMaxTitleLength );
         }
 
         // Gets the contents
-        if ( ( _strContents != null ) && !_strContents.equals( STRING_EMPTY ) )
+        if ( isContents( _xpathMatcher.getSubtreeMatches(  ) ) )
         {
-            _strContents += ( STRING_SPACE + new String( ch, start, length ) );
+            appendContents( ch, start, length );
         }
-        else
+    }
+
+    /**
+     * Checks whether the texts of the current element belong to the contents
+     *
+     * @param nSubtreeMatches the subtree XPaths matched by the current element
+     * @return true if the texts belong to the contents
+     */
+    private boolean isContents( int nSubtreeMatches )
+    {
+        return ( ( nSubtreeMatches & MATCH_CONTENTS_EXCLUDE ) == 0 ) &&
+        ( !_bContentsIncludes || ( ( nSubtreeMatches & MATCH_CONTENTS_INCLUDE ) != 0 ) );
+    }
+
+    /**
+     * Appends a text to the contents, separated from the previous texts by a space
+     *
+     * @param ch the characters
+     * @param start the start position in the array
+     * @param length the number of characters to append
+     */
+    private void appendContents( char[] ch, int start, int length )
+    {
+        if ( _sbContents.length(  ) > 0 )
+        {
+            // The separator is only appended if a character can follow it
+            if ( ( _nMaxContentsLength > 0 ) && ( ( _sbContents.length(  ) + 1 ) >= _nMaxContentsLength ) )
+            {
+                _bTruncated |= ( length > 0 );
+
+                return;
+            }
+
+            _sbContents.append( CHAR_SPACE );
+        }
+
+        append( _sbContents, ch, start, length, _nMaxContentsLength );
+    }
+
+    /**
+     * Appends characters to an extracted text, up to its maximum length : the card is then
+     * marked as truncated. A surrogate pair is never split
+     *
+     * @param sb the extracted text
+     * @param ch the characters
+     * @param start the start position in the array
+     * @param length the number of characters to append
+     * @param nMaxLength the maximum length of the text, 0 for no limit
+     */
+    private void append( StringBuilder sb, char[] ch, int start, int length, int nMaxLength )
+    {
+        int nLength = length;
+
+        if ( ( nMaxLength > 0 ) && ( ( sb.length(  ) + length ) > nMaxLength ) )
         {
-            _strContents += new String( ch, start, length );
+            nLength = Math.max( 0, nMaxLength - sb.length(  ) );
+
+            if ( ( nLength > 0 ) && Character.isHighSurrogate( ch[( start + nLength ) - 1] ) )
+            {
+                nLength--;
+            }
+
+            _bTruncated = true;
         }
+
+        sb.append( ch, start, nLength );
     }
 
     /**
-    * Gets the list of Solr items
+    * Gets the list of Solr items. Only filled when the parser has been built
+    * without a sink
     *
     * @return The list of Solr items
     */
@@ -33,22 +33,25 @@
  */
 package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
 
+import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingCheckpoint;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.ParsedCardsCache;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
 import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
 import fr.paris.lutece.portal.service.content.XPageAppService;
@@ -61,7 +64,7 @@ import fr.paris.lutece.util.url.UrlItem;
 /**
  * Parser for public cards (comarquage)
  */
-public class CoMarquageSolrPublicParser extends DefaultHandler
+public class CoMarquageSolrPublicParser extends DefaultHandler implements CorpusParser
 {
     // -------------
     // - Constants -
@@ -95,12 +98,38 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
     // URL delimiter
     private static final String PROPERTY_URL_DELIMITER = "comarquage.parser.url.public.delimiter";
 
+    // Parsing engine
+    private static final String PROPERTY_PARSER_ENGINE = "comarquage-solr.parser.engine";
+    private static final String ENGINE_STAX = "stax";
+
+    // Corpus name
+    private static final String CORPUS_NAME = "public";
+
     // Strings
     private static final String STRING_EMPTY = "";
     private static final String STRING_EQUAL = "=";
-    private static final String STRING_SLASH = "/";
     private static final String STRING_SPACE = " ";
+    private static final char CHAR_SPACE = ' ';
     private static final String SHORT_NAME = "comgepub";
+
+    // Version of the Solr items built by this parser, signing the cached items with the properties shaping them
+    private static final String ITEMS_VERSION = "2";
+
+    // Properties shaping the Solr items, signing the cached items
+    private static final String[] SIGNATURE_PROPERTIES = 
+        {
+            PROPERTY_PLUGIN_NAME, PROPERTY_XPATH_CARD, PROPERTY_XPATH_URL, PROPERTY_XPATH_DATE, PROPERTY_XPATH_TITLE,
+            PROPERTY_XPATH_THEME, PROPERTY_XPATH_KEYWORDS, PROPERTY_INDEXING_TYPE, PROPERTY_SITE, PROPERTY_PROD_URL,
+            PROPERTY_PATH_ID, PROPERTY_URL_DELIMITER
+        };
+
+    // XPaths matched by the current element
+    private static final int MATCH_CARD = 1;
+    private static final int MATCH_URL = 2;
+    private static final int MATCH_DATE = 4;
+    private static final int MATCH_TITLE = 8;
+    private static final int MATCH_THEME = 16;
+    private static final int MATCH_KEYWORDS = 32;
     
     // -------------
     // - Variables -
@@ -108,31 +137,84 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
     // List of Solr items
     private List<SolrItem> _listSolrItems;
 
-    // XPath
-    private String _strXPath;
+    // Sink receiving the Solr items
+    private SolrItemSink _sink;
+
+    // Metrics of the run, and time spent by this parser building and handing the items
+    private IndexingMetrics _metrics = new IndexingMetrics(  );
+    private long _lItemNanos;
+
+    // Parser of the card dates
+    private final CardDateParser _dateParser = CardDateParser.getInstance(  );
+
+    // Cache of the parsed cards
+    private ParsedCardsCache _cache;
+
+    // Checkpoint of the run, and writer flushed before each save
+    private IndexingCheckpoint _checkpoint;
+    private Flushable _writer;
+
+    // XPaths of the contents
+    private XPathMatcher _xpathMatcher;
 
-    // Contents
-    private String _strUrl;
-    private String _strDate;
+    // URL delimiter
+    private String _strUrlDelimiter;
+
+    // Parsing engines
+    private boolean _bStaxEngine;
+    private SAXParser _parser;
+    private StaxDocumentParser _staxParser;
+
+    // Contents, reused from a card to another
+    private final StringBuilder _sbUrl = new StringBuilder(  );
+    private final StringBuilder _sbDate = new StringBuilder(  );
+    private final StringBuilder _sbTitle = new StringBuilder(  );
+    private final StringBuilder _sbTheme = new StringBuilder(  );
+    private final StringBuilder _sbKeywords = new StringBuilder(  );
     private String _strType;
-    private String _strTitle;
     private String _strSite;
-    private String _strProdUrl;
-    private String _strTheme;
-    private String _strKeywords;
+    private String _strUrlPrefix;
 
     /**
-     * Initializes and launches the parsing of the public cards (public constructor)
+     * Initializes and launches the parsing of the public cards (public constructor).
+     * All the Solr items are kept in memory and can be retrieved with {@link #getPublicSolrItems()}
      */
     public CoMarquageSolrPublicParser(  )
     {
-        // Gets the list of CDC index keys
-        String strCdcIndexKeys = AppPropertiesService.getProperty( PROPERTY_INDEXING_FRAGMENT +
-                PROPERTY_LIST_CDC_INDEX_KEYS_FRAGMENT );
-
         // Initializes the Solr Item list
         _listSolrItems = new ArrayList<SolrItem>(  );
 
+        init( new SolrItemSink(  )
+            {
+                public void accept( SolrItem item )
+                {
+                    _listSolrItems.add( item );
+                }
+            } );
+
+        parse(  );
+    }
+
+    /**
+     * Initializes the parser of the public cards. The parsing is launched by {@link #parse()}
+     * and each Solr item is handed to the sink as soon as its card is parsed
+     *
+     * @param sink the sink receiving the Solr items
+     */
+    public CoMarquageSolrPublicParser( SolrItemSink sink )
+    {
+        init( sink );
+    }
+
+    /**
+     * Initializes the parser
+     *
+     * @param sink the sink receiving the Solr items
+     */
+    private void init( SolrItemSink sink )
+    {
+        _sink = sink;
+
         // Initializes the indexing type
         _strType = AppPropertiesService.getProperty( PROPERTY_INDEXING_TYPE );
 
@@ -140,44 +222,301 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
         _strSite = AppPropertiesService.getProperty( PROPERTY_SITE );
 
         // Initializes the prod url
-        _strProdUrl = AppPropertiesService.getProperty( PROPERTY_PROD_URL );
+        String strProdUrl = AppPropertiesService.getProperty( PROPERTY_PROD_URL );
 
-        if ( !_strProdUrl.endsWith( "/" ) )
+        if ( !strProdUrl.endsWith( "/" ) )
         {
-            _strProdUrl = _strProdUrl + "/";
+            strProdUrl = strProdUrl + "/";
         }
 
-        try
+        // Initializes the prefix of the card URLs : the xpage URL ending with the path ID parameter,
+        // whose value is appended for each card. It is built by UrlItem, giving the same URLs
+        UrlItem url = new UrlItem( strProdUrl );
+        url.addParameter( XPageAppService.PARAM_XPAGE_APP, AppPropertiesService.getProperty( PROPERTY_PLUGIN_NAME ) );
+        url.addParameter( AppPropertiesService.getProperty( PROPERTY_PATH_ID ), STRING_EMPTY );
+        _strUrlPrefix = url.getUrl(  );
+
+        // Compiles the XPaths of the contents
+        _xpathMatcher = new XPathMatcher(  );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_CARD ), MATCH_CARD );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_URL ), MATCH_URL );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_DATE ), MATCH_DATE );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_TITLE ), MATCH_TITLE );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_THEME ), MATCH_THEME );
+        _xpathMatcher.addXPath( AppPropertiesService.getProperty( PROPERTY_XPATH_KEYWORDS ), MATCH_KEYWORDS );
+
+        // Initializes the URL delimiter
+        _strUrlDelimiter = AppPropertiesService.getProperty( PROPERTY_URL_DELIMITER ) + STRING_EQUAL;
+
+        // Initializes the parsing engine
+        _bStaxEngine = ENGINE_STAX.equals( AppPropertiesService.getProperty( PROPERTY_PARSER_ENGINE ) );
+    }
+
+    /**
+     * Launches the parsing of the public cards
+     */
+    public void parse(  )
+    {
+        // Launches the parsing of each CDC index file
+        ComarquageIndexingEngine engine = new ComarquageIndexingEngine( _sink, _metrics, 1 );
+        engine.addCorpus( getCorpusDescriptor(  ) );
+        engine.setCache( _cache );
+        engine.setCheckpoint( _checkpoint, _writer );
+        engine.run(  );
+    }
+
+    /**
+     * Gets the CDC index files listing the public cards
+     *
+     * @return the index files
+     */
+    private static List<File> getIndexFiles(  )
+    {
+        List<File> listFiles = new ArrayList<File>(  );
+
+        // Gets the list of CDC index keys
+        String strCdcIndexKeys = AppPropertiesService.getProperty( PROPERTY_INDEXING_FRAGMENT +
+                PROPERTY_LIST_CDC_INDEX_KEYS_FRAGMENT );
+
+        // Splits the list of CDC index keys
+        String[] splitKeys = strCdcIndexKeys.split( "," );
+
+        for ( int i = 0; i < splitKeys.length; i++ )
         {
-            // Initializes the SAX parser
-            SAXParserFactory factory = SAXParserFactory.newInstance(  );
-            SAXParser parser = factory.newSAXParser(  );
+            // Gets the XML index file path
+            String strXmlFile = AppPropertiesService.getProperty( PROPERTY_INDEXING_FRAGMENT + splitKeys[i] );
+            listFiles.add( new File( AppPathService.getPath( PROPERTY_INDEXING_XML_BASE_VAR, strXmlFile ) ) );
+        }
 
-            // Splits the list of CDC index keys
-            String[] splitKeys = strCdcIndexKeys.split( "," );
+        return listFiles;
+    }
 
-            for ( int i = 0; i < splitKeys.length; i++ )
+    /**
+     * Gets the description of the public cards corpus, for the indexing engine
+     *
+     * @return the corpus descriptor
+     */
+    public static CorpusDescriptor getCorpusDescriptor(  )
+    {
+        return new CorpusDescriptor(  )
             {
-                // Gets the XML index file path
-                String strXmlFile = AppPropertiesService.getProperty( PROPERTY_INDEXING_FRAGMENT + splitKeys[i] );
-                String strXmlPath = AppPathService.getPath( PROPERTY_INDEXING_XML_BASE_VAR, strXmlFile );
+                public String getName(  )
+                {
+                    return CORPUS_NAME;
+                }
+
+                public String getSignature(  )
+                {
+                    StringBuilder sbSignature = new StringBuilder( CORPUS_NAME ).append( ITEMS_VERSION );
+
+                    for ( String strProperty : SIGNATURE_PROPERTIES )
+                    {
+                        sbSignature.append( '\n' ).append( AppPropertiesService.getProperty( strProperty ) );
+                    }
+
+                    return sbSignature.toString(  );
+                }
+
+                public List<File> getRoots(  )
+                {
+                    return getIndexFiles(  );
+                }
+
+                public CorpusPathFilter getPathFilter(  )
+                {
+                    return CorpusPathFilter.ALL;
+                }
+
+                public CorpusParser createParser( SolrItemSink sink, IndexingMetrics metrics )
+                {
+                    CoMarquageSolrPublicParser parser = new CoMarquageSolrPublicParser( sink );
+                    parser.setMetrics( metrics );
+
+                    return parser;
+                }
+            };
+    }
 
-                // Launches the parsing of this file (with the current handler)
-                parser.parse( strXmlPath, this );
-            }
+    /**
+     * Launches the parsing of a CDC index file with the current handler
+     *
+     * @param file the index file
+     * @return true if the file has been parsed, false if it could not be parsed
+     */
+    public boolean parseCorpusFile( File file )
+    {
+        try
+        {
+            parseFile( file );
+
+            return true;
         }
         catch ( ParserConfigurationException e )
         {
+            _metrics.addError(  );
             AppLogService.error( e.getMessage(  ), e );
         }
         catch ( SAXException e )
         {
+            _metrics.addError(  );
             AppLogService.error( e.getMessage(  ), e );
         }
         catch ( IOException e )
         {
+            _metrics.addError(  );
             AppLogService.error( e.getMessage(  ), e );
         }
+
+        return false;
+    }
+
+    /**
+     * Sets the cache of the parsed cards, replaying the items of the unchanged files during {@link #parse()}
+     *
+     * @param cache the cache
+     */
+    public void setCache( ParsedCardsCache cache )
+    {
+        _cache = cache;
+    }
+
+    /**
+     * Sets the checkpoint of the run, skipping the index files completed by an interrupted run during {@link #parse()}
+     *
+     * @param checkpoint the checkpoint
+     * @param writer the writer of the items, flushed before each save of the checkpoint
+     */
+    public void setCheckpoint( IndexingCheckpoint checkpoint, Flushable writer )
+    {
+        _checkpoint = checkpoint;
+        _writer = writer;
+    }
+
+    /**
+     * Sets the metrics of the run, updated by the parsing
+     *
+     * @param metrics the metrics
+     */
+    public void setMetrics( IndexingMetrics metrics )
+    {
+        _metrics = metrics;
+    }
+
+    /**
+     * Launches the parsing of a file with the configured engine
+     *
+     * @param file the XML file
+     * @throws ParserConfigurationException if the SAX parser cannot be created
+     * @throws SAXException any SAX exception
+     * @throws IOException if the file cannot be read
+     */
+    private void parseFile( File file ) throws ParserConfigurationException, SAXException, IOException
+    {
+        _metrics.addFileScanned(  );
+
+        long lStart = System.nanoTime(  );
+        long lItemNanos = _lItemNanos;
+
+        if ( _bStaxEngine )
+        {
+            // Only the subtrees of the configured XPaths are read
+            if ( _staxParser == null )
+            {
+                _staxParser = new StaxDocumentParser(  );
+            }
+
+            _staxParser.parse( file, this,
+                new StaxDocumentParser.SubtreeFilter(  )
+                {
+                    public boolean isSkippable(  )
+                    {
+                        return _xpathMatcher.isOutside(  );
+                    }
+                } );
+        }
+        else
+        {
+            // Initializes the SAX parser
+            if ( _parser == null )
+            {
+                _parser = ComarquageIndexingEngine.newSAXParser(  );
+            }
+
+            InputStream in = PooledFileInput.getInstance(  ).open( file );
+
+            try
+            {
+                InputSource source = new InputSource( in );
+                source.setSystemId( file.toURI(  ).toString(  ) );
+                _parser.parse( source, this );
+            }
+            finally
+            {
+                in.close(  );
+            }
+        }
+
+        // The building and the writing of the items are timed separately
+        _metrics.addParseTime( System.nanoTime(  ) - lStart - ( _lItemNanos - lItemNanos ) );
+        _metrics.addBytesRead( file.length(  ) );
+    }
+
+    /**
+     * Launches the parsing of a single public card. The public cards are only listed in the
+     * CDC index files, so these files are parsed in order until the card is found. Only the
+     * first item of the card is handed to the sink
+     *
+     * @param strPathId the path ID of the card
+     */
+    public void parse( String strPathId )
+    {
+        final String strUid = getUid( strPathId );
+        final List<SolrItem> listItems = new ArrayList<SolrItem>( 1 );
+        SolrItemSink sink = _sink;
+
+        _sink = new SolrItemSink(  )
+                {
+                    public void accept( SolrItem item )
+                    {
+                        if ( listItems.isEmpty(  ) && strUid.equals( item.getUid(  ) ) )
+                        {
+                            listItems.add( item );
+                        }
+                    }
+                };
+
+        try
+        {
+            for ( File file : getIndexFiles(  ) )
+            {
+                parseCorpusFile( file );
+
+                if ( !listItems.isEmpty(  ) )
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            _sink = sink;
+        }
+
+        if ( !listItems.isEmpty(  ) )
+        {
+            sink.accept( listItems.get( 0 ) );
+        }
+    }
+
+    /**
+     * Gets the UID of the Solr item of a public card
+     *
+     * @param strPathId the path ID of the card
+     * @return the UID
+     */
+    public static String getUid( String strPathId )
+    {
+        return strPathId + SolrConstants.CONSTANT_UNDERSCORE + SHORT_NAME;
     }
 
     /**
@@ -188,14 +527,14 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
     public void startDocument(  ) throws SAXException
     {
         // Initializes the XPATH
-        _strXPath = STRING_EMPTY;
+        _xpathMatcher.reset(  );
 
         // Initializes the contents
-        _strUrl = STRING_EMPTY;
-        _strDate = STRING_EMPTY;
-        _strTitle = STRING_EMPTY;
-        _strTheme = STRING_EMPTY;
-        _strKeywords = STRING_EMPTY;
+        _sbUrl.setLength( 0 );
+        _sbDate.setLength( 0 );
+        _sbTitle.setLength( 0 );
+        _sbTheme.setLength( 0 );
+        _sbKeywords.setLength( 0 );
     }
 
     /**
@@ -222,17 +561,16 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
         throws SAXException
     {
         // Updates the XPath
-        _strXPath += ( STRING_SLASH + qName );
+        _xpathMatcher.startElement( qName );
 
         // Resets the contents
-        String strXPathCard = AppPropertiesService.getProperty( PROPERTY_XPATH_CARD );
-
-        if ( ( _strXPath != null ) && _strXPath.equals( strXPathCard ) )
+        if ( ( _xpathMatcher.getMatches(  ) & MATCH_CARD ) != 0 )
         {
-            _strUrl = STRING_EMPTY;
-            _strTitle = STRING_EMPTY;
-            _strTheme = STRING_EMPTY;
-            _strKeywords = STRING_EMPTY;
+            _sbUrl.setLength( 0 );
+            _sbDate.setLength( 0 );
+            _sbTitle.setLength( 0 );
+            _sbTheme.setLength( 0 );
+            _sbKeywords.setLength( 0 );
         }
     }
 
@@ -249,37 +587,24 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
         throws SAXException
     {
         // If all the contents are retrieved (end of card)
-        String strXPathCard = AppPropertiesService.getProperty( PROPERTY_XPATH_CARD );
-
-        if ( ( _strXPath != null ) && _strXPath.equals( strXPathCard ) )
+        if ( ( _xpathMatcher.getMatches(  ) & MATCH_CARD ) != 0 )
         {
+            long lStart = System.nanoTime(  );
+
             // Sets the path
-            String strDelimiter = AppPropertiesService.getProperty( PROPERTY_URL_DELIMITER ) + STRING_EQUAL;
-            String strPath = _strUrl.split( strDelimiter )[1];
-
-            // Sets the full URL
-            UrlItem url = new UrlItem( _strProdUrl );
-            url.addParameter( XPageAppService.PARAM_XPAGE_APP, AppPropertiesService.getProperty( PROPERTY_PLUGIN_NAME ) );
-            url.addParameter( AppPropertiesService.getProperty( PROPERTY_PATH_ID ), strPath );
-            
-            // Sets the contents
-            String strContents = _strTitle + STRING_SPACE + _strKeywords + STRING_SPACE + _strTheme;
+            String strPath = _sbUrl.toString(  ).split( _strUrlDelimiter )[1];
 
-            // Converts the date from "dd MMMMM yyyy" to "yyyyMMdd"
-            Locale locale = Locale.FRENCH;
-            Date dateUpdate = null;
+            // Sets the contents
+            String strTitle = _sbTitle.toString(  );
+            StringBuilder sbContents = new StringBuilder( _sbTitle.length(  ) + _sbKeywords.length(  ) +
+                    _sbTheme.length(  ) + 2 );
+            sbContents.append( _sbTitle ).append( STRING_SPACE ).append( _sbKeywords );
+            sbContents.append( STRING_SPACE ).append( _sbTheme );
 
-            try
-            {
-                SimpleDateFormat dateFormat = new SimpleDateFormat( "dd MMMMM yyyy", locale );
-                dateUpdate = dateFormat.parse( _strDate );
+            String strContents = sbContents.toString(  );
 
-                dateFormat.applyPattern( "yyyyMMdd" );
-            }
-            catch ( ParseException e )
-            {
-                dateUpdate = null;
-            }
+            // Converts the date from "dd MMMMM yyyy"
+            Date dateUpdate = _dateParser.parse( _sbDate.toString(  ) );
 
             // Creates a new lucene document
             SolrItem item = new SolrItem(  );
@@ -291,20 +616,24 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
             // * FIELD_CONTENTS	: not stored (saves disk space) and indexed (with the analyser)
             // * FIELD_TITLE	: stored and not indexed (the title already exists in the contents)
             // * FIELD_TYPE		: stored and indexed (without the analyser) -> allows to filter the search by type
-            item.setUrl( url.getUrl(  ) );
+            item.setUrl( _strUrlPrefix.concat( strPath ) );
             item.setDate( dateUpdate );
-            item.setUid( strPath + SolrConstants.CONSTANT_UNDERSCORE + SHORT_NAME );
+            item.setUid( getUid( strPath ) );
             item.setContent( strContents );
-            item.setTitle( _strTitle );
+            item.setTitle( strTitle );
             item.setType( _strType );
             item.setSite( _strSite );
 
-            // Adds the new item to the map
-            _listSolrItems.add( item );
+            _metrics.addCardParsed(  );
+            _metrics.addBuildTime( System.nanoTime(  ) - lStart );
+
+            // Hands the new item to the sink
+            _sink.accept( item );
+            _lItemNanos += ( System.nanoTime(  ) - lStart );
         }
 
         // Updates the XPath
-        _strXPath = _strXPath.substring( 0, _strXPath.lastIndexOf( STRING_SLASH ) );
+        _xpathMatcher.endElement(  );
     }
 
     /**
@@ -319,53 +648,48 @@ public class CoMarquageSolrPublicParser extends DefaultHandler
     public void characters( char[] ch, int start, int length )
         throws SAXException
     {
-        // Gets the XPath comparisons properties
-        String strXPathUrl = AppPropertiesService.getProperty( PROPERTY_XPATH_URL );
-        String strXPathDate = AppPropertiesService.getProperty( PROPERTY_XPATH_DATE );
-        String strXPathTitle = AppPropertiesService.getProperty( PROPERTY_XPATH_TITLE );
-        String strXPathTheme = AppPropertiesService.getProperty( PROPERTY_XPATH_THEME );
-        String strXPathKeywords = AppPropertiesService.getProperty( PROPERTY_XPATH_KEYWORDS );
+        // Gets the XPaths matched by the current element
+        int nMatches = _xpathMatcher.getMatches(  );
 
         // Gets the URL
-        if ( ( _strXPath != null ) && _strXPath.equals( strXPathUrl ) )
+        if ( ( nMatches & MATCH_URL ) != 0 )
         {
-            _strUrl += new String( ch, start, length );
+            _sbUrl.append( ch, start, length );
         }
 
         // Gets the date
-        else if ( ( _strXPath != null ) && _strXPath.equals( strXPathDate ) )
+        else if ( ( nMatches & MATCH_DATE ) != 0 )
         {
-            _strDate += new String( ch, start, length );
+            _sbDate.append( ch, start, length );
         }
 
         // Gets the title
-        else if ( ( _strXPath != null ) && _strXPath.equals( strXPathTitle ) )
+        else if ( ( nMatches & MATCH_TITLE ) != 0 )
         {
-            _strTitle += new String( ch, start, length );
+            _sbTitle.append( ch, start, length );
         }
 
         // Gets the theme
-        else if ( ( _strXPath != null ) && _strXPath.equals( strXPathTheme ) )
+        else if ( ( nMatches & MATCH_THEME ) != 0 )
         {
-            if ( ( _strTheme != null ) && !_strTheme.equals( STRING_EMPTY ) )
-            {
-                _strTheme += ( STRING_SPACE + new String( ch, start, length ) );
-            }
-            else
+            if ( _sbTheme.length(  ) > 0 )
             {
-                _strTheme += new String( ch, start, length );
+                _sbTheme.append( CHAR_SPACE );
             }
+
+            _sbTheme.append( ch, start, length );
         }
 
         // Gets the keywords
-        else if ( ( _strXPath != null ) && _strXPath.equals( strXPathKeywords ) )
+        else if ( ( nMatches & MATCH_KEYWORDS ) != 0 )
         {
-            _strKeywords += new String( ch, start, length );
+            _sbKeywords.append( ch, start, length );
         }
     }
 
     /**
-     * Gets the list of Solr items
+     * Gets the list of Solr items. Only filled when the parser has been built
+     * without a sink
      *
      * @return The list of Solr items
      */
@@ -0,0 +1,737 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingCheckpoint;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.ParsedCardsCache;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Indexing engine parsing one or more comarquage corpora in a single run. The trees of the corpora
+ * are walked with {@link Files#walkFileTree}, which reads the attributes of the files along with
+ * the directories, and each file accepted by the filter of its corpus is handed to the parse stage
+ * as soon as it is found. With more than one thread, the files of all the corpora are parsed by a
+ * shared pool while the calling thread walks the trees, and each thread of the pool has its own
+ * parser per corpus. All the items are handed to the same sink, in no particular order.
+ * With a single thread, the files are parsed in order by the calling thread.
+ * In both modes, a file whose parser throws a runtime exception is counted as an error and the run
+ * goes on with the next files, while an error stops the run and is thrown again to the caller.
+ * When a parsed cards cache is set, the items of the unchanged files are replayed from the cache
+ * instead of being parsed.
+ */
+public class ComarquageIndexingEngine
+{
+    // SAX parser factory shared by all the parsers
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newInstance(  );
+
+    // Number of files pending in the parallel parse stage, per thread
+    private static final int PENDING_FILES_PER_THREAD = 16;
+
+    // Variables
+    private final SolrItemSink _sink;
+    private final IndexingMetrics _metrics;
+    private final int _nThreads;
+    private final List<CorpusDescriptor> _listCorpora = new ArrayList<CorpusDescriptor>(  );
+    private ParsedCardsCache _cache;
+    private IndexingCheckpoint _checkpoint;
+    private Flushable _writer;
+
+    /**
+     * Creates an engine
+     *
+     * @param sink the sink receiving the Solr items of all the corpora
+     * @param metrics the metrics of the run
+     * @param nThreads the number of parser threads, or 0 for the number of processors
+     */
+    public ComarquageIndexingEngine( SolrItemSink sink, IndexingMetrics metrics, int nThreads )
+    {
+        _sink = sink;
+        _metrics = metrics;
+        _nThreads = ( nThreads > 0 ) ? nThreads : Runtime.getRuntime(  ).availableProcessors(  );
+    }
+
+    /**
+     * Creates a SAX parser from the shared factory
+     *
+     * @return the parser
+     * @throws ParserConfigurationException if the parser cannot be created
+     * @throws SAXException if the parser cannot be created
+     */
+    static SAXParser newSAXParser(  ) throws ParserConfigurationException, SAXException
+    {
+        synchronized ( SAX_PARSER_FACTORY )
+        {
+            return SAX_PARSER_FACTORY.newSAXParser(  );
+        }
+    }
+
+    /**
+     * Adds a corpus to the run
+     *
+     * @param corpus the corpus
+     */
+    public void addCorpus( CorpusDescriptor corpus )
+    {
+        _listCorpora.add( corpus );
+    }
+
+    /**
+     * Sets the cache of the parsed cards. It must not be used with a local cards manifest, whose
+     * skipped cards have no items to cache
+     *
+     * @param cache the cache, or null
+     */
+    public void setCache( ParsedCardsCache cache )
+    {
+        _cache = cache;
+    }
+
+    /**
+     * Sets the checkpoint of the run : the files completed by an interrupted run are skipped, and
+     * the completed files are periodically saved, after the writer has sent their items to the index
+     *
+     * @param checkpoint the checkpoint, or null
+     * @param writer the writer of the items, flushed before each save of the checkpoint
+     */
+    public void setCheckpoint( IndexingCheckpoint checkpoint, Flushable writer )
+    {
+        _checkpoint = checkpoint;
+        _writer = writer;
+    }
+
+    /**
+     * Parses all the files of the corpora
+     */
+    public void run(  )
+    {
+        if ( _nThreads > 1 )
+        {
+            runInParallel(  );
+        }
+        else
+        {
+            runSequentially(  );
+        }
+    }
+
+    /**
+     * Parses the files of all the corpora, in order, with the calling thread
+     */
+    private void runSequentially(  )
+    {
+        try
+        {
+            for ( CorpusDescriptor corpus : _listCorpora )
+            {
+                final CorpusParser parser = createParser( corpus, _sink );
+
+                walk( corpus,
+                    new FileHandler(  )
+                    {
+                        public void handle( File file ) throws InterruptedException
+                        {
+                            if ( Thread.interrupted(  ) )
+                            {
+                                throw new InterruptedException(  );
+                            }
+
+                            parse( parser, file, _sink );
+                        }
+                    } );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+
+    /**
+     * Parses the files of all the corpora with a pool of threads. The calling thread walks the
+     * trees and hands each file to the pool as soon as it is found, waiting when too many files
+     * are pending. An error thrown by a worker stops the run, and is thrown again by the calling
+     * thread once the pending files are done
+     */
+    private void runInParallel(  )
+    {
+        final SolrItemSink sink = new SynchronizedSolrItemSink( _sink );
+        final int nPermits = _nThreads * PENDING_FILES_PER_THREAD;
+        final Semaphore semaphore = new Semaphore( nPermits );
+        final ExecutorService executor = Executors.newFixedThreadPool( _nThreads );
+        final AtomicReference<Error> failure = new AtomicReference<Error>(  );
+
+        try
+        {
+            for ( final CorpusDescriptor corpus : _listCorpora )
+            {
+                final ThreadLocal<CorpusParser> workers = new ThreadLocal<CorpusParser>(  )
+                    {
+                        protected CorpusParser initialValue(  )
+                        {
+                            return createParser( corpus, sink );
+                        }
+                    };
+
+                walk( corpus,
+                    new FileHandler(  )
+                    {
+                        public void handle( final File file ) throws InterruptedException
+                        {
+                            // The remaining files are not parsed once a worker has failed
+                            if ( failure.get(  ) != null )
+                            {
+                                return;
+                            }
+
+                            semaphore.acquire(  );
+                            executor.execute( new Runnable(  )
+                                {
+                                    public void run(  )
+                                    {
+                                        try
+                                        {
+                                            if ( failure.get(  ) == null )
+                                            {
+                                                parse( workers.get(  ), file, sink );
+                                            }
+                                        }
+                                        catch ( Error e )
+                                        {
+                                            // An error stops the run, and is thrown again by the calling thread
+                                            failure.compareAndSet( null, e );
+                                        }
+                                        finally
+                                        {
+                                            semaphore.release(  );
+                                        }
+                                    }
+                                } );
+                        }
+                    } );
+            }
+
+            // All the permits are back once the last file is parsed
+            semaphore.acquire( nPermits );
+
+            if ( failure.get(  ) != null )
+            {
+                throw failure.get(  );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            // The files in progress are abandoned, the sink is not used once the run has returned
+            executor.shutdownNow(  );
+            awaitTermination( executor );
+            Thread.currentThread(  ).interrupt(  );
+        }
+        finally
+        {
+            executor.shutdown(  );
+        }
+    }
+
+    /**
+     * Waits for the end of the tasks of a stopped pool, whatever the interruptions
+     *
+     * @param executor the pool
+     */
+    private static void awaitTermination( ExecutorService executor )
+    {
+        while ( !executor.isTerminated(  ) )
+        {
+            try
+            {
+                executor.awaitTermination( 1, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                // The interruption is restored by the caller
+            }
+        }
+    }
+
+    /**
+     * Parses a file, unless the checkpoint records it as completed, and saves the checkpoint when it is due
+     *
+     * @param parser the parser of the corpus
+     * @param file the file
+     * @param sink the sink of the parser, locked while the writer is flushed
+     */
+    private void parse( CorpusParser parser, File file, SolrItemSink sink )
+    {
+        if ( ( _checkpoint != null ) && _checkpoint.isCompleted( file ) )
+        {
+            return;
+        }
+
+        boolean bParsed = false;
+
+        try
+        {
+            bParsed = parser.parseCorpusFile( file );
+        }
+        catch ( RuntimeException e )
+        {
+            // The file fails the run, which skips the purge, and the next files are parsed
+            _metrics.addError(  );
+            AppLogService.error( "Error parsing " + file + " : " + e.getMessage(  ), e );
+        }
+        catch ( Error e )
+        {
+            _metrics.addError(  );
+            AppLogService.error( "Error parsing " + file + " : " + e.getMessage(  ), e );
+
+            throw e;
+        }
+
+        // All the items of the parsed file have been handed to the sink, a file in error is parsed again on resume
+        if ( bParsed && ( _checkpoint != null ) )
+        {
+            _checkpoint.complete( file );
+
+            if ( _checkpoint.isDue(  ) )
+            {
+                synchronized ( sink )
+                {
+                    try
+                    {
+                        _writer.flush(  );
+                        _checkpoint.save( _metrics );
+                    }
+                    catch ( IOException e )
+                    {
+                        AppLogService.error( "Unable to flush the items before the checkpoint", e );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a parser of a corpus, reading and filling the cache when it is set
+     *
+     * @param corpus the corpus
+     * @param sink the sink receiving the items
+     * @return the parser
+     */
+    private CorpusParser createParser( CorpusDescriptor corpus, SolrItemSink sink )
+    {
+        if ( _cache == null )
+        {
+            return corpus.createParser( sink, _metrics );
+        }
+
+        CapturingSolrItemSink capture = new CapturingSolrItemSink( sink );
+
+        return new CachedCorpusParser( corpus.createParser( capture, _metrics ), capture, corpus.getSignature(  ) );
+    }
+
+    /**
+     * Walks the roots of a corpus, handing each accepted file to the handler. The roots which are
+     * not directories are handed as they are, the parser reporting the missing ones. The symbolic
+     * links are followed, and the directories looping back to one of their parents are skipped
+     *
+     * @param corpus the corpus
+     * @param handler the handler of the files
+     * @throws InterruptedException if the handler is interrupted
+     */
+    private void walk( CorpusDescriptor corpus, FileHandler handler )
+        throws InterruptedException
+    {
+        CorpusPathFilter filter = corpus.getPathFilter(  );
+
+        for ( File fileRoot : corpus.getRoots(  ) )
+        {
+            if ( !fileRoot.isDirectory(  ) )
+            {
+                handler.handle( fileRoot );
+
+                continue;
+            }
+
+            CorpusFileVisitor visitor = new CorpusFileVisitor( fileRoot.toPath(  ), filter, handler );
+
+            try
+            {
+                Files.walkFileTree( fileRoot.toPath(  ), EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE,
+                    visitor );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Error walking the " + corpus.getName(  ) + " cards " + fileRoot + " : " +
+                    e.getMessage(  ), e );
+            }
+
+            visitor.endWalk(  );
+
+            if ( visitor.getInterruption(  ) != null )
+            {
+                throw visitor.getInterruption(  );
+            }
+        }
+    }
+
+    /**
+     * Handler of the files found by the walk of a corpus
+     */
+    private interface FileHandler
+    {
+        /**
+         * Handles a file
+         *
+         * @param file the file
+         * @throws InterruptedException if the handler is interrupted
+         */
+        void handle( File file ) throws InterruptedException;
+    }
+
+    /**
+     * Visitor of the tree of a corpus, handing the accepted files to a handler. The time spent by the
+     * walk between two callbacks, reading the directories and the attributes of the files, is timed as
+     * the walk phase
+     */
+    private class CorpusFileVisitor extends SimpleFileVisitor<Path>
+    {
+        private final Path _pathRoot;
+        private final CorpusPathFilter _filter;
+        private final FileHandler _handler;
+        private InterruptedException _interruption;
+        private long _lWalkStart = System.nanoTime(  );
+
+        /**
+         * Creates a new visitor
+         *
+         * @param pathRoot the root of the walk
+         * @param filter the filter of the files and directories
+         * @param handler the handler of the accepted files
+         */
+        CorpusFileVisitor( Path pathRoot, CorpusPathFilter filter, FileHandler handler )
+        {
+            _pathRoot = pathRoot;
+            _filter = filter;
+            _handler = handler;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public FileVisitResult preVisitDirectory( Path pathDirectory, BasicFileAttributes attributes )
+        {
+            endWalk(  );
+
+            FileVisitResult result = ( pathDirectory.equals( _pathRoot ) || _filter.acceptDirectory( pathDirectory ) )
+                ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+
+            _lWalkStart = System.nanoTime(  );
+
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public FileVisitResult visitFile( Path pathFile, BasicFileAttributes attributes )
+        {
+            endWalk(  );
+
+            FileVisitResult result = FileVisitResult.CONTINUE;
+
+            if ( attributes.isRegularFile(  ) && _filter.acceptFile( pathFile ) )
+            {
+                try
+                {
+                    _handler.handle( pathFile.toFile(  ) );
+                }
+                catch ( InterruptedException e )
+                {
+                    _interruption = e;
+                    result = FileVisitResult.TERMINATE;
+                }
+            }
+
+            _lWalkStart = System.nanoTime(  );
+
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public FileVisitResult visitFileFailed( Path pathFile, IOException e )
+        {
+            if ( e instanceof FileSystemLoopException )
+            {
+                AppLogService.error( "Directory skipped, it loops back to one of its parents : " + pathFile );
+            }
+            else
+            {
+                AppLogService.error( "Error walking " + pathFile + " : " + e.getMessage(  ), e );
+            }
+
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public FileVisitResult postVisitDirectory( Path pathDirectory, IOException e )
+        {
+            if ( e != null )
+            {
+                AppLogService.error( "Error walking " + pathDirectory + " : " + e.getMessage(  ), e );
+            }
+
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Adds the time spent by the walk since the last callback to the metrics
+         */
+        void endWalk(  )
+        {
+            _metrics.addWalkTime( System.nanoTime(  ) - _lWalkStart );
+            _lWalkStart = System.nanoTime(  );
+        }
+
+        /**
+         * Gets the interruption of the handler, which ended the walk
+         *
+         * @return the interruption, or null
+         */
+        InterruptedException getInterruption(  )
+        {
+            return _interruption;
+        }
+    }
+
+    /**
+     * Parser replaying the items of the cached files, and caching the items of the parsed files
+     */
+    private class CachedCorpusParser implements CorpusParser
+    {
+        private final CorpusParser _parser;
+        private final CapturingSolrItemSink _capture;
+        private final String _strSignature;
+
+        /**
+         * Creates a new caching parser
+         *
+         * @param parser the parser of the corpus, handing its items to the capturing sink
+         * @param capture the capturing sink
+         * @param strSignature the signature of the configuration of the parser
+         */
+        CachedCorpusParser( CorpusParser parser, CapturingSolrItemSink capture, String strSignature )
+        {
+            _parser = parser;
+            _capture = capture;
+            _strSignature = strSignature;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean parseCorpusFile( File file )
+        {
+            String strKey;
+
+            try
+            {
+                strKey = _cache.getKey( file, _strSignature );
+            }
+            catch ( IOException e )
+            {
+                // The parser reports the unreadable file
+                return _parser.parseCorpusFile( file );
+            }
+
+            List<SolrItem> listItems = _cache.get( strKey );
+
+            if ( listItems != null )
+            {
+                _metrics.addCacheHit(  );
+
+                for ( SolrItem item : listItems )
+                {
+                    _capture.getSink(  ).accept( item );
+                }
+
+                return true;
+            }
+
+            ParsedCardsCache.EntryWriter entry = _cache.open( strKey );
+            boolean bParsed = false;
+
+            _capture.start( entry );
+
+            try
+            {
+                bParsed = _parser.parseCorpusFile( file );
+            }
+            finally
+            {
+                _capture.stop(  );
+
+                // The items of a file which could not be parsed may be incomplete
+                if ( entry != null )
+                {
+                    if ( bParsed )
+                    {
+                        entry.commit(  );
+                    }
+                    else
+                    {
+                        entry.abort(  );
+                    }
+                }
+            }
+
+            return bParsed;
+        }
+    }
+
+    /**
+     * Sink copying the items handed to another sink to the cache entry of the parsed file
+     */
+    private static class CapturingSolrItemSink implements SolrItemSink
+    {
+        private final SolrItemSink _sink;
+        private ParsedCardsCache.EntryWriter _entry;
+
+        /**
+         * Creates a new capturing sink
+         *
+         * @param sink the wrapped sink
+         */
+        CapturingSolrItemSink( SolrItemSink sink )
+        {
+            _sink = sink;
+        }
+
+        /**
+         * Gets the wrapped sink
+         *
+         * @return the sink
+         */
+        SolrItemSink getSink(  )
+        {
+            return _sink;
+        }
+
+        /**
+         * Starts copying the items
+         *
+         * @param entry the cache entry of the parsed file, or null
+         */
+        void start( ParsedCardsCache.EntryWriter entry )
+        {
+            _entry = entry;
+        }
+
+        /**
+         * Stops copying the items
+         */
+        void stop(  )
+        {
+            _entry = null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void accept( SolrItem item )
+        {
+            _sink.accept( item );
+
+            if ( _entry != null )
+            {
+                _entry.add( item );
+            }
+        }
+    }
+
+    /**
+     * Sink serializing the items handed by the worker threads to a sink which is not thread safe
+     */
+    private static class SynchronizedSolrItemSink implements SolrItemSink
+    {
+        private final SolrItemSink _sink;
+
+        /**
+         * Creates a new synchronized sink
+         *
+         * @param sink the wrapped sink
+         */
+        SynchronizedSolrItemSink( SolrItemSink sink )
+        {
+            _sink = sink;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public synchronized void accept( SolrItem item )
+        {
+            _sink.accept( item );
+        }
+    }
+}
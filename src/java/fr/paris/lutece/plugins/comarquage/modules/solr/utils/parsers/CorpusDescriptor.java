@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.io.File;
+import java.util.List;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+
+
+/**
+ * Description of a comarquage corpus for the {@link ComarquageIndexingEngine} : where its files are,
+ * and how each file is parsed
+ */
+public interface CorpusDescriptor
+{
+    /**
+     * Gets the name of the corpus, for the logs
+     *
+     * @return the name
+     */
+    String getName(  );
+
+    /**
+     * Gets the roots of the corpus : the files to parse, and the directories whose files are all parsed
+     *
+     * @return the roots
+     */
+    List<File> getRoots(  );
+
+    /**
+     * Gets a signature of the configuration of the parsers : the items extracted from a file with
+     * another configuration are not replayed from the parsed cards cache
+     *
+     * @return the signature
+     */
+    String getSignature(  );
+
+    /**
+     * Gets the filter of the files and directories found under the roots
+     *
+     * @return the filter
+     */
+    CorpusPathFilter getPathFilter(  );
+
+    /**
+     * Creates a parser of the files of the corpus. A parser is only used by one thread at a time
+     *
+     * @param sink the sink receiving the Solr items
+     * @param metrics the metrics of the run
+     * @return the parser
+     */
+    CorpusParser createParser( SolrItemSink sink, IndexingMetrics metrics );
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Filter of the files and directories found under the roots of a corpus. The filter is made of
+ * comma separated globs, matched against the name of each file or directory : the excluded
+ * directories are not walked, and a file is parsed when it is not excluded and matches an
+ * include glob. The roots themselves are never filtered.
+ */
+public class CorpusPathFilter
+{
+    /**
+     * Filter accepting all the files and directories
+     */
+    public static final CorpusPathFilter ALL = new CorpusPathFilter( null, null );
+
+    // Constants
+    private static final String GLOB_SEPARATOR = ",";
+    private static final String GLOB_SYNTAX = "glob:";
+
+    // Variables
+    private final List<PathMatcher> _listIncludes;
+    private final List<PathMatcher> _listExcludes;
+
+    /**
+     * Creates a filter
+     *
+     * @param strIncludes the comma separated globs of the files to parse, or null for all the files
+     * @param strExcludes the comma separated globs of the files and directories to skip, or null
+     */
+    public CorpusPathFilter( String strIncludes, String strExcludes )
+    {
+        _listIncludes = getMatchers( strIncludes );
+        _listExcludes = getMatchers( strExcludes );
+    }
+
+    /**
+     * Creates a filter from the globs of the properties
+     *
+     * @param strIncludeProperty the property of the include globs
+     * @param strDefaultIncludes the include globs when the property is not set
+     * @param strExcludeProperty the property of the exclude globs
+     * @param strDefaultExcludes the exclude globs when the property is not set
+     * @return the filter
+     */
+    public static CorpusPathFilter fromProperties( String strIncludeProperty, String strDefaultIncludes,
+        String strExcludeProperty, String strDefaultExcludes )
+    {
+        return new CorpusPathFilter( AppPropertiesService.getProperty( strIncludeProperty, strDefaultIncludes ),
+            AppPropertiesService.getProperty( strExcludeProperty, strDefaultExcludes ) );
+    }
+
+    /**
+     * Checks whether a directory found under a root must be walked
+     *
+     * @param pathDirectory the directory
+     * @return true if the directory must be walked
+     */
+    public boolean acceptDirectory( Path pathDirectory )
+    {
+        return !matches( _listExcludes, pathDirectory );
+    }
+
+    /**
+     * Checks whether a file found under a root must be parsed
+     *
+     * @param pathFile the file
+     * @return true if the file must be parsed
+     */
+    public boolean acceptFile( Path pathFile )
+    {
+        return ( _listIncludes.isEmpty(  ) || matches( _listIncludes, pathFile ) ) &&
+        !matches( _listExcludes, pathFile );
+    }
+
+    /**
+     * Checks whether the name of a file matches one of the globs
+     *
+     * @param listMatchers the matchers of the globs
+     * @param path the file
+     * @return true if a glob matches
+     */
+    private static boolean matches( List<PathMatcher> listMatchers, Path path )
+    {
+        if ( listMatchers.isEmpty(  ) )
+        {
+            return false;
+        }
+
+        Path pathName = path.getFileName(  );
+
+        for ( PathMatcher matcher : listMatchers )
+        {
+            if ( matcher.matches( pathName ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Compiles comma separated globs
+     *
+     * @param strGlobs the globs, or null
+     * @return the matchers
+     */
+    private static List<PathMatcher> getMatchers( String strGlobs )
+    {
+        List<PathMatcher> listMatchers = new ArrayList<PathMatcher>(  );
+
+        if ( strGlobs != null )
+        {
+            for ( String strGlob : strGlobs.split( GLOB_SEPARATOR ) )
+            {
+                strGlob = strGlob.trim(  );
+
+                if ( strGlob.length(  ) > 0 )
+                {
+                    listMatchers.add( FileSystems.getDefault(  ).getPathMatcher( GLOB_SYNTAX + strGlob ) );
+                }
+            }
+        }
+
+        return listMatchers;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.IndexingMetrics;
+import fr.paris.lutece.plugins.comarquage.modules.solr.utils.UidDateMap;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Sink dropping the duplicates of the Solr items already handed to the wrapped sink during a run :
+ * the same public card is listed by several CDC index files, and would be written to Solr once per file.
+ * With the "first" rule, only the first item of a UID is kept. With the "newest" rule, a duplicate
+ * is also kept when its card is newer than the items of the UID already kept, the index ending with
+ * the newest card. The UIDs are kept in a compact {@link UidDateMap}.
+ * The "first" item is the first one handed to this sink : it follows the order of the files when
+ * they are parsed by a single thread, and depends on the scheduling of the threads otherwise. The
+ * "newest" rule keeps the same card whatever the order, except between the cards of the same date.
+ * The items are handed to the wrapped sink in the order they are kept : this class is thread safe,
+ * as long as the wrapped sink is.
+ */
+public final class DeduplicatingSolrItemSink implements SolrItemSink
+{
+    // Properties
+    private static final String PROPERTY_DEDUP_ENABLE = "comarquage-solr.indexing.dedup.enable";
+    private static final String PROPERTY_DEDUP_RULE = "comarquage-solr.indexing.dedup.rule";
+    private static final String RULE_FIRST = "first";
+    private static final String RULE_NEWEST = "newest";
+
+    // Date of the items without date, older than any other
+    private static final long NO_DATE = UidDateMap.MISSING + 1;
+
+    // Variables
+    private final SolrItemSink _sink;
+    private final IndexingMetrics _metrics;
+    private final boolean _bNewest;
+    private final UidDateMap _mapDates = new UidDateMap(  );
+
+    /**
+     * Creates a sink dropping the duplicate items
+     *
+     * @param sink the wrapped sink
+     * @param metrics the metrics of the run, counting the dropped items
+     * @param bNewest true for the "newest" rule, false for the "first" rule
+     */
+    private DeduplicatingSolrItemSink( SolrItemSink sink, IndexingMetrics metrics, boolean bNewest )
+    {
+        _sink = sink;
+        _metrics = metrics;
+        _bNewest = bNewest;
+    }
+
+    /**
+     * Wraps a sink with the deduplication configured in comarquage-solr.properties
+     *
+     * @param sink the sink receiving the items
+     * @param metrics the metrics of the run
+     * @return the deduplicating sink, or the given sink if the deduplication is disabled
+     */
+    public static SolrItemSink wrap( SolrItemSink sink, IndexingMetrics metrics )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_DEDUP_ENABLE, true ) )
+        {
+            return sink;
+        }
+
+        String strRule = AppPropertiesService.getProperty( PROPERTY_DEDUP_RULE, RULE_NEWEST ).trim(  );
+
+        if ( !RULE_FIRST.equals( strRule ) && !RULE_NEWEST.equals( strRule ) )
+        {
+            AppLogService.error( "Unknown deduplication rule " + strRule + ", the rule " + RULE_NEWEST + " is used" );
+            strRule = RULE_NEWEST;
+        }
+
+        return new DeduplicatingSolrItemSink( sink, metrics, RULE_NEWEST.equals( strRule ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void accept( SolrItem item )
+    {
+        long lDate = ( item.getDate(  ) == null ) ? NO_DATE : item.getDate(  ).getTime(  );
+        long lKeptDate = _mapDates.get( item.getUid(  ) );
+
+        if ( ( lKeptDate != UidDateMap.MISSING ) && ( !_bNewest || ( lDate <= lKeptDate ) ) )
+        {
+            _metrics.addItemDeduplicated(  );
+
+            return;
+        }
+
+        _mapDates.put( item.getUid(  ), lDate );
+        _sink.accept( item );
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Opens the XML files to parse through NIO channels. Small files are read into direct buffers
+ * taken from a bounded pool, and their channel is closed as soon as they are fully read; large
+ * files (such as the public index files) are memory mapped. This keeps the number of open
+ * descriptors and allocated buffers bounded during a walk over thousands of cards.
+ * This class is thread safe.
+ */
+public final class PooledFileInput
+{
+    // Properties
+    private static final String PROPERTY_BUFFER_SIZE = "comarquage-solr.parser.input.bufferSize";
+    private static final String PROPERTY_POOL_SIZE = "comarquage-solr.parser.input.poolSize";
+    private static final String PROPERTY_MAP_THRESHOLD = "comarquage-solr.parser.input.mapThreshold";
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+    private static final int DEFAULT_POOL_SIZE = 32;
+    private static final long DEFAULT_MAP_THRESHOLD = 4194304L;
+
+    // Singleton
+    private static PooledFileInput _singleton;
+
+    // Variables
+    private final int _nBufferSize;
+    private final long _lMapThreshold;
+    private final BlockingQueue<ByteBuffer> _queueBuffers;
+
+    /**
+     * Creates the pool
+     */
+    private PooledFileInput(  )
+    {
+        _nBufferSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_BUFFER_SIZE, DEFAULT_BUFFER_SIZE ) );
+        _lMapThreshold = Math.min( Integer.MAX_VALUE,
+                AppPropertiesService.getPropertyLong( PROPERTY_MAP_THRESHOLD, DEFAULT_MAP_THRESHOLD ) );
+        _queueBuffers = new ArrayBlockingQueue<ByteBuffer>( Math.max( 1,
+                    AppPropertiesService.getPropertyInt( PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE ) ) );
+    }
+
+    /**
+     * Gets the unique instance of the pool
+     *
+     * @return the pool
+     */
+    public static synchronized PooledFileInput getInstance(  )
+    {
+        if ( _singleton == null )
+        {
+            _singleton = new PooledFileInput(  );
+        }
+
+        return _singleton;
+    }
+
+    /**
+     * Opens a file. The returned stream must be closed, to give its buffer back to the pool
+     *
+     * @param file the file
+     * @return the input stream of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public InputStream open( File file ) throws IOException
+    {
+        FileChannel channel = FileChannel.open( file.toPath(  ), StandardOpenOption.READ );
+        ByteBuffer buffer = null;
+
+        try
+        {
+            long lSize = channel.size(  );
+
+            // Large file : memory mapped
+            if ( lSize >= _lMapThreshold )
+            {
+                ByteBuffer mappedBuffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, lSize );
+                channel.close(  );
+
+                return new BufferInputStream( mappedBuffer, null, false );
+            }
+
+            // Small file : read into a pooled buffer
+            buffer = acquire(  );
+
+            boolean bEndOfFile = false;
+
+            while ( buffer.hasRemaining(  ) && !bEndOfFile )
+            {
+                bEndOfFile = channel.read( buffer ) < 0;
+            }
+
+            buffer.flip(  );
+
+            // The channel is only kept open when the file does not fit in the buffer
+            if ( bEndOfFile || ( channel.position(  ) >= lSize ) )
+            {
+                channel.close(  );
+
+                return new BufferInputStream( buffer, null, true );
+            }
+
+            return new BufferInputStream( buffer, channel, true );
+        }
+        catch ( IOException e )
+        {
+            channel.close(  );
+
+            if ( buffer != null )
+            {
+                release( buffer );
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates a new one if the pool is empty
+     *
+     * @return the buffer, cleared
+     */
+    private ByteBuffer acquire(  )
+    {
+        ByteBuffer buffer = _queueBuffers.poll(  );
+
+        if ( buffer == null )
+        {
+            return ByteBuffer.allocateDirect( _nBufferSize );
+        }
+
+        buffer.clear(  );
+
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer is dropped if the pool is full
+     *
+     * @param buffer the buffer
+     */
+    private void release( ByteBuffer buffer )
+    {
+        _queueBuffers.offer( buffer );
+    }
+
+    /**
+     * Input stream reading a buffer, refilled from a channel while the file is not fully read
+     */
+    private final class BufferInputStream extends InputStream
+    {
+        private ByteBuffer _buffer;
+        private FileChannel _channel;
+        private final boolean _bPooled;
+
+        /**
+         * Creates a new stream
+         *
+         * @param buffer the buffer, ready to be read
+         * @param channel the channel to refill the buffer from, or null if the file is fully read
+         * @param bPooled true if the buffer must be given back to the pool
+         */
+        BufferInputStream( ByteBuffer buffer, FileChannel channel, boolean bPooled )
+        {
+            _buffer = buffer;
+            _channel = channel;
+            _bPooled = bPooled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(  ) throws IOException
+        {
+            if ( !ensureRemaining(  ) )
+            {
+                return -1;
+            }
+
+            return _buffer.get(  ) & 0xFF;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read( byte[] bytes, int nOffset, int nLength )
+            throws IOException
+        {
+            if ( nLength == 0 )
+            {
+                return 0;
+            }
+
+            // Reads as many bytes as requested, across the buffer refills, as a file stream does :
+            // the XML parsers split the texts at the boundaries of the reads
+            int nRead = 0;
+
+            while ( ( nRead < nLength ) && ensureRemaining(  ) )
+            {
+                int nChunk = Math.min( nLength - nRead, _buffer.remaining(  ) );
+                _buffer.get( bytes, nOffset + nRead, nChunk );
+                nRead += nChunk;
+            }
+
+            return ( nRead == 0 ) ? ( -1 ) : nRead;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int available(  )
+        {
+            return ( _buffer == null ) ? 0 : _buffer.remaining(  );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close(  ) throws IOException
+        {
+            if ( _buffer != null )
+            {
+                if ( _bPooled )
+                {
+                    release( _buffer );
+                }
+
+                _buffer = null;
+            }
+
+            closeChannel(  );
+        }
+
+        /**
+         * Refills the buffer from the channel if it has been fully read
+         *
+         * @return false at the end of the file
+         * @throws IOException if the file cannot be read
+         */
+        private boolean ensureRemaining(  ) throws IOException
+        {
+            if ( _buffer == null )
+            {
+                return false;
+            }
+
+            while ( !_buffer.hasRemaining(  ) )
+            {
+                if ( _channel == null )
+                {
+                    return false;
+                }
+
+                _buffer.clear(  );
+
+                int nRead = _channel.read( _buffer );
+                _buffer.flip(  );
+
+                if ( nRead < 0 )
+                {
+                    closeChannel(  );
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Closes the channel
+         *
+         * @throws IOException if the channel cannot be closed
+         */
+        private void closeChannel(  ) throws IOException
+        {
+            if ( _channel != null )
+            {
+                _channel.close(  );
+                _channel = null;
+            }
+        }
+    }
+}
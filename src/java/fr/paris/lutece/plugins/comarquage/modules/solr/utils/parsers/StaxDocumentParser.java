@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/**
+ * Parses an XML document with a StAX pull parser and sends its events to a SAX handler.
+ * After each start of element, the handler is asked whether the element subtree is useless :
+ * such a subtree is skipped, none of its events are sent and its text is never read.
+ * An instance must not be shared between threads.
+ */
+public class StaxDocumentParser
+{
+    private static final String STRING_EMPTY = "";
+    private static final String STRING_COLON = ":";
+    private static final String TYPE_CDATA = "CDATA";
+
+    // Variables
+    private final XMLInputFactory _factory;
+    private final AttributesImpl _attributes = new AttributesImpl(  );
+
+    /**
+     * Creates a new StAX parser
+     */
+    public StaxDocumentParser(  )
+    {
+        _factory = XMLInputFactory.newInstance(  );
+        _factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+    }
+
+    /**
+     * Parses an XML file
+     *
+     * @param file the XML file
+     * @param handler the handler receiving the events
+     * @param filter the filter telling which subtrees can be skipped
+     * @throws SAXException if the document is not well formed, or any exception of the handler
+     * @throws IOException if the file cannot be read
+     */
+    public void parse( File file, DefaultHandler handler, SubtreeFilter filter )
+        throws SAXException, IOException
+    {
+        InputStream in = PooledFileInput.getInstance(  ).open( file );
+
+        try
+        {
+            XMLStreamReader reader = _factory.createXMLStreamReader( file.toURI(  ).toString(  ), in );
+
+            try
+            {
+                parse( reader, handler, filter );
+            }
+            finally
+            {
+                reader.close(  );
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new SAXException( e.getMessage(  ), e );
+        }
+        finally
+        {
+            in.close(  );
+        }
+    }
+
+    /**
+     * Sends the events of a document to the handler
+     *
+     * @param reader the StAX reader
+     * @param handler the handler
+     * @param filter the subtree filter
+     * @throws XMLStreamException if the document is not well formed
+     * @throws SAXException any exception of the handler
+     */
+    private void parse( XMLStreamReader reader, DefaultHandler handler, SubtreeFilter filter )
+        throws XMLStreamException, SAXException
+    {
+        handler.startDocument(  );
+
+        while ( reader.hasNext(  ) )
+        {
+            switch ( reader.next(  ) )
+            {
+                case XMLStreamConstants.START_ELEMENT:
+
+                    String strQName = getQName( reader.getPrefix(  ), reader.getLocalName(  ) );
+                    handler.startElement( STRING_EMPTY, STRING_EMPTY, strQName, getAttributes( reader ) );
+
+                    if ( filter.isSkippable(  ) )
+                    {
+                        skipSubtree( reader );
+                        handler.endElement( STRING_EMPTY, STRING_EMPTY, strQName );
+                    }
+
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    handler.endElement( STRING_EMPTY, STRING_EMPTY,
+                        getQName( reader.getPrefix(  ), reader.getLocalName(  ) ) );
+
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    handler.characters( reader.getTextCharacters(  ), reader.getTextStart(  ),
+                        reader.getTextLength(  ) );
+
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        handler.endDocument(  );
+    }
+
+    /**
+     * Skips the events up to the end of the current element
+     *
+     * @param reader the StAX reader, positioned on a start of element
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static void skipSubtree( XMLStreamReader reader )
+        throws XMLStreamException
+    {
+        int nDepth = 1;
+
+        while ( nDepth > 0 )
+        {
+            int nEvent = reader.next(  );
+
+            if ( nEvent == XMLStreamConstants.START_ELEMENT )
+            {
+                nDepth++;
+            }
+            else if ( nEvent == XMLStreamConstants.END_ELEMENT )
+            {
+                nDepth--;
+            }
+        }
+    }
+
+    /**
+     * Gets the attributes of the current element
+     *
+     * @param reader the StAX reader, positioned on a start of element
+     * @return the attributes, reused from an element to another
+     */
+    private AttributesImpl getAttributes( XMLStreamReader reader )
+    {
+        _attributes.clear(  );
+
+        for ( int i = 0; i < reader.getAttributeCount(  ); i++ )
+        {
+            String strQName = getQName( reader.getAttributePrefix( i ), reader.getAttributeLocalName( i ) );
+            _attributes.addAttribute( STRING_EMPTY, STRING_EMPTY, strQName, TYPE_CDATA, reader.getAttributeValue( i ) );
+        }
+
+        return _attributes;
+    }
+
+    /**
+     * Gets the qualified name of an element or an attribute, as a SAX parser without namespace support
+     *
+     * @param strPrefix the namespace prefix
+     * @param strLocalName the local name
+     * @return the qualified name
+     */
+    private static String getQName( String strPrefix, String strLocalName )
+    {
+        if ( ( strPrefix == null ) || ( strPrefix.length(  ) == 0 ) )
+        {
+            return strLocalName;
+        }
+
+        return strPrefix + STRING_COLON + strLocalName;
+    }
+
+    /**
+     * Tells whether the subtree of the element that has just started can be skipped
+     */
+    public interface SubtreeFilter
+    {
+        /**
+         * Checks whether the subtree of the element that has just started is useless to the handler
+         *
+         * @return true if the subtree can be skipped
+         */
+        boolean isSkippable(  );
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Matches the current element of a SAX parsing against a set of absolute XPaths
+ * (such as <code>/Publication/Title</code>), compiled once into a tree of element names.
+ * The path of the current element is kept as a stack of tree nodes, so that following the
+ * elements and getting the XPaths matched by the current one costs a map lookup and no allocation.
+ * A subtree XPath also matches the descendants of the elements it designates.
+ */
+public final class XPathMatcher
+{
+    private static final String STRING_SLASH = "/";
+    private static final int INITIAL_DEPTH = 32;
+
+    // Compiled XPaths
+    private final Node _root = new Node(  );
+
+    // Nodes of the opened elements, null when an element is outside of the compiled XPaths,
+    // and subtree XPaths matched by each opened element or one of its ancestors
+    private Node[] _stack = new Node[INITIAL_DEPTH];
+    private int[] _subtreeMatches = new int[INITIAL_DEPTH];
+    private int _nDepth;
+
+    /**
+     * Adds an XPath to match
+     *
+     * @param strXPath the absolute XPath, made of element names separated by slashes. A null
+     *        XPath never matches
+     * @param nMatch the flag returned by {@link #getMatches()} when the XPath matches
+     */
+    public void addXPath( String strXPath, int nMatch )
+    {
+        Node node = getNode( strXPath );
+
+        if ( node != null )
+        {
+            node._nMatches |= nMatch;
+        }
+    }
+
+    /**
+     * Adds a subtree XPath to match : the elements it designates and their descendants
+     *
+     * @param strXPath the absolute XPath, made of element names separated by slashes. A null
+     *        XPath never matches
+     * @param nMatch the flag returned by {@link #getSubtreeMatches()} when the XPath matches
+     */
+    public void addSubtreeXPath( String strXPath, int nMatch )
+    {
+        Node node = getNode( strXPath );
+
+        if ( node != null )
+        {
+            node._nSubtreeMatches |= nMatch;
+        }
+    }
+
+    /**
+     * Gets the node of an XPath, creating the missing nodes
+     *
+     * @param strXPath the absolute XPath
+     * @return the node, or null if the XPath is null or relative
+     */
+    private Node getNode( String strXPath )
+    {
+        if ( strXPath == null )
+        {
+            return null;
+        }
+
+        String[] names = strXPath.split( STRING_SLASH, -1 );
+
+        // A relative XPath never matches
+        if ( names[0].length(  ) != 0 )
+        {
+            return null;
+        }
+
+        Node node = _root;
+
+        for ( int i = 1; i < names.length; i++ )
+        {
+            if ( node._mapChildren == null )
+            {
+                node._mapChildren = new HashMap<String, Node>(  );
+            }
+
+            Node child = node._mapChildren.get( names[i] );
+
+            if ( child == null )
+            {
+                child = new Node(  );
+                node._mapChildren.put( names[i], child );
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    /**
+     * Resets the path to the document root
+     */
+    public void reset(  )
+    {
+        Arrays.fill( _stack, 0, _nDepth, null );
+        _nDepth = 0;
+    }
+
+    /**
+     * Goes down to a child element
+     *
+     * @param strName the name of the element
+     */
+    public void startElement( String strName )
+    {
+        Node parent = current(  );
+        Node node = null;
+
+        if ( ( parent != null ) && ( parent._mapChildren != null ) )
+        {
+            node = parent._mapChildren.get( strName );
+        }
+
+        if ( _nDepth == _stack.length )
+        {
+            _stack = Arrays.copyOf( _stack, _nDepth * 2 );
+            _subtreeMatches = Arrays.copyOf( _subtreeMatches, _nDepth * 2 );
+        }
+
+        int nSubtreeMatches = getSubtreeMatches(  );
+
+        if ( node != null )
+        {
+            nSubtreeMatches |= node._nSubtreeMatches;
+        }
+
+        _subtreeMatches[_nDepth] = nSubtreeMatches;
+        _stack[_nDepth++] = node;
+    }
+
+    /**
+     * Goes back up to the parent element
+     */
+    public void endElement(  )
+    {
+        _stack[--_nDepth] = null;
+    }
+
+    /**
+     * Gets the XPaths matched by the current element
+     *
+     * @return the flags of the matched XPaths, combined with a bitwise or, or 0 if none matches
+     */
+    public int getMatches(  )
+    {
+        Node node = current(  );
+
+        return ( node == null ) ? 0 : node._nMatches;
+    }
+
+    /**
+     * Gets the subtree XPaths matched by the current element or one of its ancestors
+     *
+     * @return the flags of the matched subtree XPaths, combined with a bitwise or, or 0 if none matches
+     */
+    public int getSubtreeMatches(  )
+    {
+        return ( _nDepth == 0 ) ? 0 : _subtreeMatches[_nDepth - 1];
+    }
+
+    /**
+     * Checks whether the current element is outside of the compiled XPaths : neither this element
+     * nor its descendants can match any of them. The subtree XPaths matched by its ancestors still apply
+     *
+     * @return true if the current element is outside of the compiled XPaths
+     */
+    public boolean isOutside(  )
+    {
+        return current(  ) == null;
+    }
+
+    /**
+     * Gets the node of the current element
+     *
+     * @return the node, or null if the current element is outside of the compiled XPaths
+     */
+    private Node current(  )
+    {
+        return ( _nDepth == 0 ) ? _root : _stack[_nDepth - 1];
+    }
+
+    /**
+     * Node of the compiled XPaths tree
+     */
+    private static final class Node
+    {
+        private Map<String, Node> _mapChildren;
+        private int _nMatches;
+        private int _nSubtreeMatches;
+    }
+}
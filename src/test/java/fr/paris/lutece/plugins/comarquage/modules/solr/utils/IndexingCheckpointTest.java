@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests of the IndexingCheckpoint journal format
+ */
+public class IndexingCheckpointTest
+{
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final long INTERVAL = 30L;
+    private static final long MAX_AGE = 86400L;
+    private File _fileDirectory;
+    private File _fileJournal;
+    private File _fileCard1;
+    private File _fileCard2;
+
+    /**
+     * Creates the directory of the journal
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _fileDirectory = Files.createTempDirectory( "checkpoint" ).toFile(  );
+        _fileJournal = new File( _fileDirectory, "test.checkpoint" );
+        _fileCard1 = new File( _fileDirectory, "F1.xml" );
+        _fileCard2 = new File( _fileDirectory, "F2.xml" );
+    }
+
+    /**
+     * Deletes the files of the test
+     */
+    @After
+    public void tearDown(  )
+    {
+        for ( File file : _fileDirectory.listFiles(  ) )
+        {
+            file.delete(  );
+        }
+
+        _fileDirectory.delete(  );
+    }
+
+    /**
+     * Test of a saved journal : the completed files are skipped by the next run
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    @Test
+    public void testSaveAndLoad(  ) throws IOException
+    {
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        assertFalse( checkpoint.isResumed(  ) );
+        checkpoint.complete( _fileCard1 );
+        checkpoint.save( new IndexingMetrics(  ) );
+
+        List<String> listLines = Files.readAllLines( _fileJournal.toPath(  ), CHARSET );
+        assertEquals( 3, listLines.size(  ) );
+        assertEquals( "# comarquage-solr checkpoint 1", listLines.get( 0 ) );
+        assertEquals( "F\t" + _fileCard1.getAbsolutePath(  ), listLines.get( 1 ) );
+        assertEquals( "C\t0\t0\t0", listLines.get( 2 ) );
+
+        checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        assertTrue( checkpoint.isResumed(  ) );
+        assertTrue( checkpoint.isCompleted( _fileCard1 ) );
+        assertFalse( checkpoint.isCompleted( _fileCard2 ) );
+    }
+
+    /**
+     * Test of a save truncated by the interruption : its files are not skipped
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Test
+    public void testTruncatedSave(  ) throws IOException
+    {
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        checkpoint.complete( _fileCard1 );
+        checkpoint.save( new IndexingMetrics(  ) );
+        Files.write( _fileJournal.toPath(  ), ( "F\t" + _fileCard2.getAbsolutePath(  ) + "\n" ).getBytes( CHARSET ),
+            StandardOpenOption.APPEND );
+
+        checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        assertTrue( checkpoint.isCompleted( _fileCard1 ) );
+        assertFalse( checkpoint.isCompleted( _fileCard2 ) );
+    }
+
+    /**
+     * Test of a journal of an unknown format : it is ignored and deleted
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Test
+    public void testUnknownFormat(  ) throws IOException
+    {
+        Files.write( _fileJournal.toPath(  ),
+            ( "# other checkpoint 2\nF\t" + _fileCard1.getAbsolutePath(  ) + "\nC\t1\t1\t0\n" ).getBytes( CHARSET ) );
+
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        assertFalse( checkpoint.isResumed(  ) );
+        assertFalse( checkpoint.isCompleted( _fileCard1 ) );
+        assertFalse( _fileJournal.exists(  ) );
+    }
+
+    /**
+     * Test of a journal older than the maximum age : it is ignored and deleted
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Test
+    public void testTooOld(  ) throws IOException
+    {
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        checkpoint.complete( _fileCard1 );
+        checkpoint.save( new IndexingMetrics(  ) );
+        assertTrue( _fileJournal.setLastModified( System.currentTimeMillis(  ) - 60000L ) );
+
+        checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, 10L );
+        assertFalse( checkpoint.isResumed(  ) );
+        assertFalse( _fileJournal.exists(  ) );
+    }
+
+    /**
+     * Test of the end of a complete run : the journal is deleted
+     */
+    @Test
+    public void testEndRun(  )
+    {
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        checkpoint.complete( _fileCard1 );
+        checkpoint.save( new IndexingMetrics(  ) );
+        assertTrue( _fileJournal.exists(  ) );
+
+        checkpoint = IndexingCheckpoint.load( _fileJournal, INTERVAL, MAX_AGE );
+        checkpoint.endRun( new IndexingMetrics(  ) );
+        assertFalse( _fileJournal.exists(  ) );
+    }
+}
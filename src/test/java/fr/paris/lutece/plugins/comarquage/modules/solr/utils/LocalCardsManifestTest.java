@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests of the LocalCardsManifest file format
+ */
+public class LocalCardsManifestTest
+{
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private static final String HEADER = "# comarquage-solr local cards manifest 1";
+    private File _fileDirectory;
+    private File _fileManifest;
+    private File _fileCard;
+
+    /**
+     * Creates a card and the path of the manifest
+     *
+     * @throws IOException if the card cannot be written
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _fileDirectory = Files.createTempDirectory( "manifest" ).toFile(  );
+        _fileManifest = new File( _fileDirectory, "manifest.txt" );
+        _fileCard = new File( _fileDirectory, "L1.xml" );
+        write( _fileCard, "<Local url=\"L1.xml\"><Title>Carte</Title></Local>" );
+    }
+
+    /**
+     * Deletes the files of the test
+     */
+    @After
+    public void tearDown(  )
+    {
+        for ( File file : _fileDirectory.listFiles(  ) )
+        {
+            file.delete(  );
+        }
+
+        _fileDirectory.delete(  );
+    }
+
+    /**
+     * Test of a saved manifest : the unchanged card is skipped by the next run
+     *
+     * @throws IOException if the files cannot be read
+     */
+    @Test
+    public void testSaveAndLoad(  ) throws IOException
+    {
+        saveManifest(  );
+
+        List<String> listLines = Files.readAllLines( _fileManifest.toPath(  ), CHARSET );
+        assertEquals( 3, listLines.size(  ) );
+        assertEquals( HEADER, listLines.get( 0 ) );
+        assertEquals( _fileCard.length(  ) + "\t" + _fileCard.lastModified(  ) + "\t" +
+            LocalCardsManifest.hash( _fileCard, null ) + "\t" + _fileCard.getAbsolutePath(  ), listLines.get( 1 ) );
+        assertEquals( "# end 1", listLines.get( 2 ) );
+
+        LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+        assertNull( manifest.check( _fileCard ) );
+        assertEquals( 1, manifest.getSkippedCount(  ) );
+    }
+
+    /**
+     * Test of a card touched without change of its content : it is skipped after its hash is checked
+     *
+     * @throws IOException if the files cannot be read
+     */
+    @Test
+    public void testTouchedCard(  ) throws IOException
+    {
+        saveManifest(  );
+        assertTrue( _fileCard.setLastModified( _fileCard.lastModified(  ) - 60000L ) );
+
+        LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+        assertNull( manifest.check( _fileCard ) );
+        assertEquals( 1, manifest.getSkippedCount(  ) );
+    }
+
+    /**
+     * Test of a modified card : it is parsed again
+     *
+     * @throws IOException if the files cannot be read
+     */
+    @Test
+    public void testModifiedCard(  ) throws IOException
+    {
+        saveManifest(  );
+        write( _fileCard, "<Local url=\"L1.xml\"><Title>Carte modifiée</Title></Local>" );
+
+        LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+        assertNotNull( manifest.check( _fileCard ) );
+        assertEquals( 0, manifest.getSkippedCount(  ) );
+    }
+
+    /**
+     * Test of the corrupted manifests : they are ignored and all the cards are parsed
+     *
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testCorrupted(  ) throws IOException
+    {
+        saveManifest(  );
+
+        List<String> listLines = Files.readAllLines( _fileManifest.toPath(  ), CHARSET );
+        String strEntry = listLines.get( 1 );
+        String[] corrupted =
+            {
+                HEADER + "\n" + strEntry + "\n", // Truncated before the footer
+                HEADER + "\n" + strEntry + "\n# end 2\n", // Wrong count
+                "# other manifest 2\n" + strEntry + "\n# end 1\n", // Unknown format
+                HEADER + "\nx\t" + strEntry.substring( strEntry.indexOf( '\t' ) ) + "\n# end 1\n" // Invalid size
+            };
+
+        for ( String strManifest : corrupted )
+        {
+            write( _fileManifest, strManifest );
+
+            LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+            assertNotNull( strManifest, manifest.check( _fileCard ) );
+        }
+    }
+
+    /**
+     * Test of a missing manifest : all the cards are parsed
+     *
+     * @throws IOException if the card cannot be read
+     */
+    @Test
+    public void testMissing(  ) throws IOException
+    {
+        LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+        assertNotNull( manifest.check( _fileCard ) );
+    }
+
+    /**
+     * Saves the manifest of a run which has parsed the card
+     *
+     * @throws IOException if the card cannot be read
+     */
+    private void saveManifest(  ) throws IOException
+    {
+        LocalCardsManifest manifest = LocalCardsManifest.load( _fileManifest );
+        LocalCardsManifest.Entry entry = manifest.check( _fileCard );
+        assertNotNull( entry );
+        manifest.record( entry );
+        manifest.save(  );
+    }
+
+    /**
+     * Writes a file
+     *
+     * @param file the file
+     * @param strContent the content
+     * @throws IOException if the file cannot be written
+     */
+    private static void write( File file, String strContent )
+        throws IOException
+    {
+        Files.write( file.toPath(  ), strContent.getBytes( CHARSET ) );
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the SolrItemJson
+ */
+public class SolrItemJsonTest
+{
+    /**
+     * Test of the round trip of an item whose texts need escaping
+     */
+    @Test
+    public void testRoundTrip(  )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( "locals/d0/L1_comgeloc" );
+        item.setUrl( "http://prod/jsp/site/Portal.jsp?page=comarquage&xmlFile=locals/d0/L1" );
+        item.setType( "comarquage:local" );
+        item.setSite( "site" );
+        item.setTitle( "Carte \"grise\" \\ permis" );
+        item.setContent( "ligne 1\nligne 2\r\n\ttabulation \u0001 contrôle, accents éàü et 😀" );
+        item.setDate( new Date( 1227484800000L ) );
+
+        SolrItem read = roundTrip( item );
+
+        assertEquals( item.getUid(  ), read.getUid(  ) );
+        assertEquals( item.getUrl(  ), read.getUrl(  ) );
+        assertEquals( item.getType(  ), read.getType(  ) );
+        assertEquals( item.getSite(  ), read.getSite(  ) );
+        assertEquals( item.getTitle(  ), read.getTitle(  ) );
+        assertEquals( item.getContent(  ), read.getContent(  ) );
+        assertEquals( item.getDate(  ), read.getDate(  ) );
+    }
+
+    /**
+     * Test of the round trip of an item without optional fields
+     */
+    @Test
+    public void testRoundTripNulls(  )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( "F1.xml_comgepub" );
+        item.setTitle( "" );
+
+        SolrItem read = roundTrip( item );
+
+        assertEquals( item.getUid(  ), read.getUid(  ) );
+        assertEquals( "", read.getTitle(  ) );
+        assertNull( read.getUrl(  ) );
+        assertNull( read.getContent(  ) );
+        assertNull( read.getDate(  ) );
+    }
+
+    /**
+     * Test of the unknown fields, which are ignored
+     */
+    @Test
+    public void testUnknownField(  )
+    {
+        SolrItem read = SolrItemJson.read( "{\"uid\":\"F1.xml_comgepub\",\"category\":\"x\",\"date\":0}" );
+
+        assertEquals( "F1.xml_comgepub", read.getUid(  ) );
+        assertEquals( new Date( 0L ), read.getDate(  ) );
+    }
+
+    /**
+     * Test of the invalid JSON objects, such as the truncated lines of a cache entry
+     */
+    @Test
+    public void testInvalid(  )
+    {
+        String[] invalids = 
+            {
+                "", "{", "{\"uid\":\"F1.xml_comgepub\"", "{\"uid\":\"F1.xml_comgepub\"}x", "{\"uid\":F1}",
+                "{\"date\":\"x\"}", "[]"
+            };
+
+        for ( String strJson : invalids )
+        {
+            try
+            {
+                SolrItemJson.read( strJson );
+                fail( "Invalid JSON read : " + strJson );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Writes an item and reads it back
+     *
+     * @param item the item
+     * @return the item read
+     */
+    private static SolrItem roundTrip( SolrItem item )
+    {
+        StringBuilder sbJson = new StringBuilder(  );
+        SolrItemJson.write( item, sbJson );
+
+        return SolrItemJson.read( sbJson.toString(  ) );
+    }
+}
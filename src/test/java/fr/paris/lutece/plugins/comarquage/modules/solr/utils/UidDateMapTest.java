@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the UidDateMap
+ */
+public class UidDateMapTest
+{
+    private static final int NB_UIDS = 100000;
+
+    /**
+     * Test of the dates put in the map, beyond the initial capacity of the table
+     */
+    @Test
+    public void testPut(  )
+    {
+        UidDateMap mapDates = new UidDateMap(  );
+        Map<String, Long> mapExpected = new HashMap<String, Long>(  );
+        Random random = new Random( 1 );
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            String strUid = "F" + random.nextInt( NB_UIDS ) + ".xml_comgepub";
+            long lDate = random.nextLong(  ) / 2;
+            mapExpected.put( strUid, lDate );
+            mapDates.put( strUid, lDate );
+        }
+
+        assertEquals( mapExpected.size(  ), mapDates.size(  ) );
+
+        for ( Map.Entry<String, Long> entry : mapExpected.entrySet(  ) )
+        {
+            assertEquals( entry.getKey(  ), entry.getValue(  ).longValue(  ), mapDates.get( entry.getKey(  ) ) );
+        }
+    }
+
+    /**
+     * Test of the UIDs which have not been put in the map
+     */
+    @Test
+    public void testGetMissing(  )
+    {
+        UidDateMap mapDates = new UidDateMap(  );
+        assertEquals( UidDateMap.MISSING, mapDates.get( "F1.xml_comgepub" ) );
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            mapDates.put( "F" + i + ".xml_comgepub", i );
+        }
+
+        for ( int i = NB_UIDS; i < ( 2 * NB_UIDS ); i++ )
+        {
+            assertEquals( UidDateMap.MISSING, mapDates.get( "F" + i + ".xml_comgepub" ) );
+        }
+    }
+
+    /**
+     * Test of the replacement of the date of a UID
+     */
+    @Test
+    public void testReplace(  )
+    {
+        UidDateMap mapDates = new UidDateMap(  );
+        mapDates.put( "F1.xml_comgepub", 1L );
+        mapDates.put( "F1.xml_comgepub", -1L );
+
+        assertEquals( 1, mapDates.size(  ) );
+        assertEquals( -1L, mapDates.get( "F1.xml_comgepub" ) );
+    }
+}
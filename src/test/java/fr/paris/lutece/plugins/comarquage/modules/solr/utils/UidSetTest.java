@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the UidSet
+ */
+public class UidSetTest
+{
+    private static final int NB_UIDS = 100000;
+
+    /**
+     * Test of the addition of UIDs, beyond the initial capacity of the table
+     */
+    @Test
+    public void testAdd(  )
+    {
+        UidSet setUids = new UidSet(  );
+        Set<String> setExpected = new HashSet<String>(  );
+        Random random = new Random( 1 );
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            String strUid = "locals/d" + random.nextInt( NB_UIDS ) + "_comgeloc";
+            assertEquals( strUid, setExpected.add( strUid ), setUids.add( strUid ) );
+        }
+
+        assertEquals( setExpected.size(  ), setUids.size(  ) );
+
+        for ( String strUid : setExpected )
+        {
+            assertTrue( strUid, setUids.contains( strUid ) );
+        }
+    }
+
+    /**
+     * Test of the UIDs which have not been added
+     */
+    @Test
+    public void testContainsMissing(  )
+    {
+        UidSet setUids = new UidSet(  );
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            setUids.add( "F" + i + ".xml_comgepub" );
+        }
+
+        for ( int i = NB_UIDS; i < ( 2 * NB_UIDS ); i++ )
+        {
+            assertFalse( setUids.contains( "F" + i + ".xml_comgepub" ) );
+        }
+
+        assertFalse( setUids.contains( "" ) );
+    }
+
+    /**
+     * Test of the hash of the UIDs : never the value of the empty slots, and spread over all the bits
+     */
+    @Test
+    public void testHash(  )
+    {
+        Set<Long> setHashes = new HashSet<Long>(  );
+        long lOr = 0L;
+        long lAnd = -1L;
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            long lHash = UidHashTable.hash( "locals/d" + i + "_comgeloc" );
+            assertTrue( lHash != 0L );
+            setHashes.add( lHash );
+            lOr |= lHash;
+            lAnd &= lHash;
+        }
+
+        assertEquals( NB_UIDS, setHashes.size(  ) );
+        assertEquals( -1L, lOr );
+        assertEquals( 0L, lAnd );
+        assertEquals( UidHashTable.hash( "F1.xml_comgepub" ), UidHashTable.hash( new String( "F1.xml_comgepub" ) ) );
+    }
+
+    /**
+     * Test of the second hash of the UIDs : spread over all the bits, and independent of the first one
+     */
+    @Test
+    public void testSecondHash(  )
+    {
+        Set<Long> setHashes = new HashSet<Long>(  );
+        long lOr = 0L;
+        long lAnd = -1L;
+
+        for ( int i = 0; i < NB_UIDS; i++ )
+        {
+            String strUid = "locals/d" + i + "_comgeloc";
+            long lHash2 = UidHashTable.hash2( strUid );
+            assertTrue( lHash2 != UidHashTable.hash( strUid ) );
+            setHashes.add( lHash2 );
+            lOr |= lHash2;
+            lAnd &= lHash2;
+        }
+
+        assertEquals( NB_UIDS, setHashes.size(  ) );
+        assertEquals( -1L, lOr );
+        assertEquals( 0L, lAnd );
+    }
+}
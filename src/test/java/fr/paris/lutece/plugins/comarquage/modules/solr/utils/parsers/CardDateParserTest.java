@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the CardDateParser
+ */
+public class CardDateParserTest
+{
+    private static final String PATTERN_DATE = "dd MMMMM yyyy";
+    private static final int CACHE_SIZE = 2;
+    private final CardDateParser _parser = new CardDateParser( CACHE_SIZE );
+
+    /**
+     * Test of a well formed date
+     */
+    @Test
+    public void testWellFormed(  )
+    {
+        assertEquals( date( 2008, Calendar.NOVEMBER, 24 ), _parser.parse( "24 novembre 2008" ) );
+        assertEquals( date( 2012, Calendar.FEBRUARY, 1 ), _parser.parse( "01 février 2012" ) );
+    }
+
+    /**
+     * Test of the case of the month
+     */
+    @Test
+    public void testCaseInsensitive(  )
+    {
+        assertEquals( date( 2008, Calendar.NOVEMBER, 24 ), _parser.parse( "24 Novembre 2008" ) );
+    }
+
+    /**
+     * Test of the dates which are not well formed : they are parsed by the lenient format
+     *
+     * @throws ParseException if the lenient format fails
+     */
+    @Test
+    public void testLenientFallback(  ) throws ParseException
+    {
+        String[] dates = { "1 mars 2008", "31 février 2008", "24 novembre 2008 à 10h", "24 nov. 2008", "12 juillet 1965" };
+
+        for ( String strDate : dates )
+        {
+            assertEquals( strDate, lenient( strDate ), _parser.parse( strDate ) );
+        }
+
+        assertEquals( date( 2008, Calendar.MARCH, 2 ), _parser.parse( "31 février 2008" ) );
+    }
+
+    /**
+     * Test of the unparseable dates
+     */
+    @Test
+    public void testUnparseable(  )
+    {
+        assertNull( _parser.parse( "" ) );
+        assertNull( _parser.parse( "novembre 2008" ) );
+        assertNull( _parser.parse( "24/11/2008" ) );
+    }
+
+    /**
+     * Test of the cached dates : the same date is returned by each call, and the returned dates
+     * are not shared
+     */
+    @Test
+    public void testCache(  )
+    {
+        Date date = _parser.parse( "15 janvier 2010" );
+        date.setTime( 0L );
+
+        assertEquals( date( 2010, Calendar.JANUARY, 15 ), _parser.parse( "15 janvier 2010" ) );
+        assertNull( _parser.parse( "pas une date" ) );
+        assertNull( _parser.parse( "pas une date" ) );
+    }
+
+    /**
+     * Test of a cache smaller than the parsed dates : the least recently used dates are parsed again
+     */
+    @Test
+    public void testCacheEviction(  )
+    {
+        String[] dates = { "15 janvier 2010", "16 janvier 2010", "17 janvier 2010" };
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            for ( int j = 0; j < dates.length; j++ )
+            {
+                assertEquals( date( 2010, Calendar.JANUARY, 15 + j ), _parser.parse( dates[j] ) );
+            }
+        }
+
+        CardDateParser parser = new CardDateParser( 0 );
+        assertEquals( date( 2010, Calendar.JANUARY, 15 ), parser.parse( dates[0] ) );
+        assertEquals( date( 2010, Calendar.JANUARY, 15 ), parser.parse( dates[0] ) );
+    }
+
+    /**
+     * Creates a date at the start of a day
+     *
+     * @param nYear the year
+     * @param nMonth the month
+     * @param nDay the day
+     * @return the date
+     */
+    private static Date date( int nYear, int nMonth, int nDay )
+    {
+        return new GregorianCalendar( nYear, nMonth, nDay ).getTime(  );
+    }
+
+    /**
+     * Parses a date with the lenient format of the previous parser
+     *
+     * @param strDate the date
+     * @return the date
+     * @throws ParseException if the date cannot be parsed
+     */
+    private static Date lenient( String strDate ) throws ParseException
+    {
+        return new SimpleDateFormat( PATTERN_DATE, Locale.FRENCH ).parse( strDate );
+    }
+}
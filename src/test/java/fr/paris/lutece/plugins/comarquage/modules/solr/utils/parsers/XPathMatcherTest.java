@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.comarquage.modules.solr.utils.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests of the XPathMatcher
+ */
+public class XPathMatcherTest
+{
+    private static final int MATCH_TITLE = 1;
+    private static final int MATCH_TEXT = 2;
+    private static final int MATCH_PUBLICATION = 4;
+    private static final int SUBTREE_BODY = 1;
+    private XPathMatcher _matcher;
+
+    /**
+     * Compiles the XPaths of the tests
+     */
+    @Before
+    public void setUp(  )
+    {
+        _matcher = new XPathMatcher(  );
+        _matcher.addXPath( "/Publication/Title", MATCH_TITLE );
+        _matcher.addXPath( "/Publication/Title", MATCH_TEXT );
+        _matcher.addXPath( "/Publication", MATCH_PUBLICATION );
+        _matcher.addSubtreeXPath( "/Publication/Body", SUBTREE_BODY );
+    }
+
+    /**
+     * Test of the matched XPaths
+     */
+    @Test
+    public void testMatches(  )
+    {
+        assertEquals( 0, _matcher.getMatches(  ) );
+
+        _matcher.startElement( "Publication" );
+        assertEquals( MATCH_PUBLICATION, _matcher.getMatches(  ) );
+        assertFalse( _matcher.isOutside(  ) );
+
+        _matcher.startElement( "Title" );
+        assertEquals( MATCH_TITLE | MATCH_TEXT, _matcher.getMatches(  ) );
+        assertEquals( 0, _matcher.getSubtreeMatches(  ) );
+
+        _matcher.endElement(  );
+        assertEquals( MATCH_PUBLICATION, _matcher.getMatches(  ) );
+    }
+
+    /**
+     * Test of the elements outside of the compiled XPaths
+     */
+    @Test
+    public void testOutside(  )
+    {
+        _matcher.startElement( "Publication" );
+        _matcher.startElement( "Other" );
+        assertEquals( 0, _matcher.getMatches(  ) );
+        assertTrue( _matcher.isOutside(  ) );
+
+        // A descendant of an element outside of the XPaths is outside too
+        _matcher.startElement( "Title" );
+        assertEquals( 0, _matcher.getMatches(  ) );
+        assertTrue( _matcher.isOutside(  ) );
+
+        _matcher.endElement(  );
+        _matcher.endElement(  );
+        _matcher.startElement( "Title" );
+        assertEquals( MATCH_TITLE | MATCH_TEXT, _matcher.getMatches(  ) );
+
+        _matcher.reset(  );
+        _matcher.startElement( "Title" );
+        assertTrue( _matcher.isOutside(  ) );
+    }
+
+    /**
+     * Test of the subtree XPaths, inherited by the descendants
+     */
+    @Test
+    public void testSubtree(  )
+    {
+        _matcher.startElement( "Publication" );
+        _matcher.startElement( "Body" );
+        assertEquals( SUBTREE_BODY, _matcher.getSubtreeMatches(  ) );
+        assertEquals( 0, _matcher.getMatches(  ) );
+
+        _matcher.startElement( "Paragraph" );
+        _matcher.startElement( "Link" );
+        assertEquals( SUBTREE_BODY, _matcher.getSubtreeMatches(  ) );
+        assertTrue( _matcher.isOutside(  ) );
+
+        _matcher.endElement(  );
+        _matcher.endElement(  );
+        _matcher.endElement(  );
+        assertEquals( 0, _matcher.getSubtreeMatches(  ) );
+
+        _matcher.startElement( "Title" );
+        assertEquals( 0, _matcher.getSubtreeMatches(  ) );
+    }
+
+    /**
+     * Test of the reset of the path
+     */
+    @Test
+    public void testReset(  )
+    {
+        _matcher.startElement( "Publication" );
+        _matcher.startElement( "Body" );
+        _matcher.reset(  );
+        assertEquals( 0, _matcher.getMatches(  ) );
+        assertEquals( 0, _matcher.getSubtreeMatches(  ) );
+
+        _matcher.startElement( "Publication" );
+        assertEquals( MATCH_PUBLICATION, _matcher.getMatches(  ) );
+    }
+
+    /**
+     * Test of a path deeper than the initial stack
+     */
+    @Test
+    public void testDeepPath(  )
+    {
+        StringBuilder sbXPath = new StringBuilder(  );
+        int nDepth = 100;
+
+        for ( int i = 0; i < nDepth; i++ )
+        {
+            sbXPath.append( "/Element" );
+        }
+
+        _matcher.addXPath( sbXPath.toString(  ), MATCH_TITLE );
+        _matcher.addSubtreeXPath( "/Element/Element", SUBTREE_BODY );
+
+        for ( int i = 0; i < nDepth; i++ )
+        {
+            _matcher.startElement( "Element" );
+        }
+
+        assertEquals( MATCH_TITLE, _matcher.getMatches(  ) );
+        assertEquals( SUBTREE_BODY, _matcher.getSubtreeMatches(  ) );
+
+        _matcher.startElement( "Element" );
+        assertTrue( _matcher.isOutside(  ) );
+
+        for ( int i = 0; i <= nDepth; i++ )
+        {
+            _matcher.endElement(  );
+        }
+
+        assertEquals( 0, _matcher.getSubtreeMatches(  ) );
+        assertFalse( _matcher.isOutside(  ) );
+    }
+
+    /**
+     * Test of the XPaths which never match
+     */
+    @Test
+    public void testInvalidXPaths(  )
+    {
+        XPathMatcher matcher = new XPathMatcher(  );
+        matcher.addXPath( null, MATCH_TITLE );
+        matcher.addXPath( "Publication/Title", MATCH_TITLE );
+        matcher.addSubtreeXPath( "Publication", SUBTREE_BODY );
+
+        matcher.startElement( "Publication" );
+        assertEquals( 0, matcher.getSubtreeMatches(  ) );
+        assertTrue( matcher.isOutside(  ) );
+
+        matcher.startElement( "Title" );
+        assertEquals( 0, matcher.getMatches(  ) );
+    }
+}